@@ -0,0 +1,116 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote.file;
+
+import org.moe.gradle.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds 100k files to a file list one by one, then walks the resulting tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileListBenchmark {
+
+    private static final int NUM_DIRECTORIES = 100;
+
+    private static final int NUM_FILES_PER_DIRECTORY = 1000;
+
+    private static final URI TARGET = URI.create("file:///remote");
+
+    private File dir;
+
+    private List<File> files;
+
+    private FileList list;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("moe-file-list-benchmark").toFile();
+        files = new ArrayList<>(NUM_DIRECTORIES * NUM_FILES_PER_DIRECTORY);
+        for (int d = 0; d < NUM_DIRECTORIES; ++d) {
+            final File sub = new File(dir, "dir" + d);
+            if (!sub.mkdirs()) {
+                throw new IOException("Failed to create " + sub);
+            }
+            for (int f = 0; f < NUM_FILES_PER_DIRECTORY; ++f) {
+                final File file = new File(sub, "file" + f);
+                if (!file.createNewFile()) {
+                    throw new IOException("Failed to create " + file);
+                }
+                files.add(file);
+            }
+        }
+
+        list = new FileList(dir, TARGET);
+        for (File file : files) {
+            list.add(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteFileOrFolder(dir);
+    }
+
+    @Benchmark
+    public FileList add() {
+        final FileList list = new FileList(dir, TARGET);
+        for (File file : files) {
+            list.add(file);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public int walk() {
+        final int[] count = new int[1];
+        list.walk(new Walker() {
+            @Override
+            public void visitFile(FileEntry entry, boolean isLast) {
+                ++count[0];
+            }
+
+            @Override
+            public void preVisitDirectory(DirectoryEntry entry, boolean isLast) {
+                ++count[0];
+            }
+
+            @Override
+            public void postVisitDirectory(DirectoryEntry entry, boolean isLast) {
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a synthetic multi-MB test log, written to the collector in pipe-sized chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JUnitTestCollectorBenchmark {
+
+    private static final int NUM_CLASSES = 500;
+
+    private static final int NUM_METHODS = 40;
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private byte[] data;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream(16 * 1024 * 1024);
+        final StringBuilder line = new StringBuilder();
+        line.append("%TESTC  : ").append(NUM_CLASSES * NUM_METHODS).append(" v2\n");
+        for (int c = 0; c < NUM_CLASSES; ++c) {
+            for (int m = 0; m < NUM_METHODS; ++m) {
+                line.append("%TESTS  :com.example.Class").append(c).append("-method").append(m).append('\n');
+                line.append("2016-01-01 00:00:00.000 TestApp[123:4567] Some regular output of the test\n");
+                line.append("2016-01-01 00:00:00.001 TestApp[123:4567] Some more regular output of the test\n");
+                line.append("%TESTE  :com.example.Class").append(c).append("-method").append(m).append('\n');
+            }
+            final byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            log.write(bytes, 0, bytes.length);
+            line.setLength(0);
+        }
+        line.append("%RUNTIME:1000\n");
+        final byte[] tail = line.toString().getBytes(StandardCharsets.UTF_8);
+        log.write(tail, 0, tail.length);
+        data = log.toByteArray();
+
+        dir = Files.createTempDirectory("moe-collector-benchmark").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteFileOrFolder(dir);
+    }
+
+    @Benchmark
+    public int parse() {
+        final JUnitTestCollector collector = new JUnitTestCollector("bench", new File(dir, "bench.txt"),
+                new File(dir, "bench.xml"), new File(dir, "bench.html"));
+        final JUnitTestCollectorWriter writer = new JUnitTestCollectorWriter(collector);
+        for (int off = 0; off < data.length; off += CHUNK_SIZE) {
+            writer.write(data, off, Math.min(CHUNK_SIZE, data.length - off));
+        }
+        writer.close();
+        collector.close();
+        return collector.getNumStarted();
+    }
+}
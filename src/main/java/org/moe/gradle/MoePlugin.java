@@ -28,11 +28,13 @@ import org.gradle.tooling.provider.model.ToolingModelBuilderRegistry;
 import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.remote.Server;
+import org.moe.gradle.remote.ServerPool;
 import org.moe.gradle.tasks.AbstractBaseTask;
 import org.moe.gradle.tasks.ClassValidate;
 import org.moe.gradle.tasks.Desugar;
 import org.moe.gradle.tasks.Dex;
 import org.moe.gradle.tasks.Dex2Oat;
+import org.moe.gradle.tasks.DeviceDiscovery;
 import org.moe.gradle.tasks.GenerateUIObjCInterfaces;
 import org.moe.gradle.tasks.IpaBuild;
 import org.moe.gradle.tasks.Launchers;
@@ -49,6 +51,7 @@ import org.moe.gradle.utils.Arch;
 import org.moe.gradle.utils.FileUtils;
 import org.moe.gradle.utils.PropertiesUtil;
 import org.moe.gradle.utils.Require;
+import org.moe.gradle.utils.XcodeProjectCache;
 
 import javax.inject.Inject;
 import java.io.File;
@@ -84,12 +87,52 @@ public class MoePlugin extends AbstractMoePlugin {
         return Require.nonNull(extension, "The plugin's 'extension' property was null");
     }
 
+    @NotNull
+    private final XcodeProjectCache xcodeProjectCache = new XcodeProjectCache();
+
+    /**
+     * Returns the cache of parsed Xcode projects, shared by the tasks of this build.
+     */
+    @NotNull
+    public XcodeProjectCache getXcodeProjectCache() {
+        return xcodeProjectCache;
+    }
+
+    @NotNull
+    private final DeviceDiscovery deviceDiscovery = new DeviceDiscovery(this);
+
+    /**
+     * Returns the device and simulator discovery, shared by the tasks of this build.
+     */
+    @NotNull
+    public DeviceDiscovery getDeviceDiscovery() {
+        return deviceDiscovery;
+    }
+
+    @Nullable
+    private ServerPool remoteServerPool;
+
     @Nullable
-    private Server remoteServer;
+    public ServerPool getRemoteServerPool() {
+        return remoteServerPool;
+    }
 
+    /**
+     * Returns the default remote server of the pool, or null if remote build is not configured.
+     *
+     * @see #getRemoteServer(String)
+     */
     @Nullable
     public Server getRemoteServer() {
-        return remoteServer;
+        return remoteServerPool == null ? null : remoteServerPool.getDefaultServer();
+    }
+
+    /**
+     * Returns the remote server for tasks with the specified affinity, or null if remote build is not configured.
+     */
+    @Nullable
+    public Server getRemoteServer(@NotNull String affinity) {
+        return remoteServerPool == null ? null : remoteServerPool.acquire(affinity);
     }
 
     @Nullable
@@ -125,9 +168,9 @@ public class MoePlugin extends AbstractMoePlugin {
         }
 
         // Setup remote build
-        remoteServer = Server.setup(this);
-        if (remoteServer != null) {
-            remoteServer.connect();
+        remoteServerPool = ServerPool.setup(this);
+        if (remoteServerPool != null) {
+            remoteServerPool.connect();
         }
 
         // Create plugin extension
@@ -239,15 +282,15 @@ public class MoePlugin extends AbstractMoePlugin {
 
     public void requireMacHostOrRemoteServerConfig(@NotNull Task task) {
         Require.nonNull(task);
-        if (!Os.isFamily(Os.FAMILY_MAC) && getRemoteServer() == null) {
+        if (!Os.isFamily(Os.FAMILY_MAC) && getRemoteServerPool() == null) {
             throw new GradleException("The '" + task.getName() + "' task requires a macOS host or a remote build configuration.");
         }
     }
 
     @Override
     protected void checkRemoteServer(AbstractBaseTask task) {
-        if (getRemoteServer() != null && task.getRemoteExecutionStatusSet()) {
-            task.dependsOn(getRemoteServer().getMoeRemoteServerSetupTask());
+        if (getRemoteServerPool() != null && task.getRemoteExecutionStatusSet()) {
+            task.dependsOn(getRemoteServerPool().getMoeRemoteServerSetupTask());
         }
     }
 }
@@ -1,10 +1,16 @@
 package org.moe.gradle.options;
 
 import org.moe.gradle.anns.IgnoreUnused;
+import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.zip.Deflater;
 
 public class RemoteBuildOptions {
 
@@ -14,6 +20,19 @@ public class RemoteBuildOptions {
     @Nullable
     private List<File> excludes;
 
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+    private boolean skipDebugSymbols;
+
+    private boolean backgroundUpload = true;
+
+    @NotNull
+    private List<String> storedExtensions = new ArrayList<>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "m4a", "aac",
+            "jar", "zip", "gz", "tgz", "bz2", "xz", "ipa", "car"));
+
     @Nullable
     public List<File> getResources() {
         return resources;
@@ -32,4 +51,53 @@ public class RemoteBuildOptions {
     public void setExcludes(@Nullable List<File> excludes) {
         this.excludes = excludes;
     }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @IgnoreUnused
+    public void setCompressionLevel(int compressionLevel) {
+        Require.GE(compressionLevel, Deflater.DEFAULT_COMPRESSION, "compressionLevel must be between -1 and 9");
+        Require.LE(compressionLevel, Deflater.BEST_COMPRESSION, "compressionLevel must be between -1 and 9");
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    @IgnoreUnused
+    public void setCompressionThreads(int compressionThreads) {
+        Require.GE(compressionThreads, 1, "compressionThreads must be at least 1");
+        this.compressionThreads = compressionThreads;
+    }
+
+    @NotNull
+    public List<String> getStoredExtensions() {
+        return Require.nonNull(storedExtensions);
+    }
+
+    @IgnoreUnused
+    public void setStoredExtensions(@NotNull Collection<String> storedExtensions) {
+        this.storedExtensions = new ArrayList<>(Require.nonNull(storedExtensions));
+    }
+
+    public boolean isSkipDebugSymbols() {
+        return skipDebugSymbols;
+    }
+
+    @IgnoreUnused
+    public void setSkipDebugSymbols(boolean skipDebugSymbols) {
+        this.skipDebugSymbols = skipDebugSymbols;
+    }
+
+    public boolean isBackgroundUpload() {
+        return backgroundUpload;
+    }
+
+    @IgnoreUnused
+    public void setBackgroundUpload(boolean backgroundUpload) {
+        this.backgroundUpload = backgroundUpload;
+    }
 }
@@ -64,6 +64,9 @@ abstract class AbstractServerTask {
                 sepWidth = printTaskMarker(outlog, ST_REMOTE_TASK_START, " STARTING REMOTE TASK - " + getTaskName());
             }
             main();
+            if (!quiet) {
+                printTaskEnd(outlog, ST_REMOTE_TASK_END, " [REMOTE TASK DONE] ", sepWidth);
+            }
 
         } catch (ServerChannelException e) {
             if (!quiet) {
@@ -78,9 +81,11 @@ abstract class AbstractServerTask {
                 printTaskMarker(errlog, ST_REMOTE_TASK_ERROR, " REMOTE TASK FAILED - " + getTaskName());
             }
             throw new GradleException(e.getMessage(), e);
-        }
-        if (!quiet) {
-            printTaskEnd(outlog, ST_REMOTE_TASK_END, " [REMOTE TASK DONE] ", sepWidth);
+
+        } finally {
+            // Tasks run once, closing logs the last incomplete line
+            outlog.close();
+            errlog.close();
         }
     }
 
@@ -0,0 +1,140 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.gradle.api.GradleException;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describes the state of the MOE SDK files with their size, modification time and executable flag.
+ * <p>
+ * The serialized form starts with a header line containing the hash of the listing, so checking
+ * whether the remote copy is up-to-date only needs the first line of the remote manifest.
+ */
+class SdkManifest {
+
+    static final String FILE_NAME = ".manifest";
+
+    private static final String HEADER_PREFIX = "# ";
+
+    @NotNull
+    private final Map<String, String> entries;
+
+    @NotNull
+    private final String hash;
+
+    private SdkManifest(@NotNull Map<String, String> entries) {
+        this.entries = Require.nonNull(entries);
+        this.hash = DigestUtils.sha1Hex(serializeEntries());
+    }
+
+    @NotNull
+    static SdkManifest create(@NotNull File localRoot, @NotNull File sdkRoot) {
+        Require.nonNull(localRoot);
+        Require.nonNull(sdkRoot);
+
+        final Path root = localRoot.getAbsoluteFile().toPath();
+        final Map<String, String> entries = new TreeMap<>();
+        try {
+            Files.walkFileTree(sdkRoot.getAbsoluteFile().toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        final String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+                        entries.put(relative, (Files.isExecutable(file) ? "x " : "- ") + attrs.size() + " "
+                                + attrs.lastModifiedTime().toMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+        return new SdkManifest(entries);
+    }
+
+    @Nullable
+    static SdkManifest parse(@Nullable String content) {
+        if (content == null || !content.startsWith(HEADER_PREFIX)) {
+            return null;
+        }
+
+        final Map<String, String> entries = new TreeMap<>();
+        final String[] lines = content.split("\n");
+        for (int idx = 1; idx < lines.length; idx++) {
+            final String[] comps = lines[idx].split(" ", 4);
+            if (comps.length != 4) {
+                return null;
+            }
+            entries.put(comps[3], comps[0] + " " + comps[1] + " " + comps[2]);
+        }
+        final SdkManifest manifest = new SdkManifest(entries);
+        if (!manifest.getHeader().equals(lines[0].trim())) {
+            // Truncated or modified manifest
+            return null;
+        }
+        return manifest;
+    }
+
+    @NotNull
+    String getHeader() {
+        return HEADER_PREFIX + hash;
+    }
+
+    @NotNull
+    String serialize() {
+        return getHeader() + "\n" + serializeEntries();
+    }
+
+    @NotNull
+    private String serializeEntries() {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            builder.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the relative paths of the files which are missing or different in the specified manifest.
+     */
+    @NotNull
+    List<String> getChangedPaths(@Nullable SdkManifest other) {
+        final List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (other == null || !entry.getValue().equals(other.entries.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+}
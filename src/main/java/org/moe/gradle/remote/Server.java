@@ -16,14 +16,14 @@ limitations under the License.
 
 package org.moe.gradle.remote;
 
-import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.gradle.BuildResult;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
-import org.gradle.api.Task;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.moe.gradle.MoePlugin;
@@ -31,40 +31,74 @@ import org.moe.gradle.MoeSDK;
 import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.groovy.closures.ConfigurationClosure;
+import org.moe.gradle.options.RemoteBuildOptions;
+import org.moe.gradle.remote.file.DirectoryEntry;
+import org.moe.gradle.remote.file.FileEntry;
 import org.moe.gradle.remote.file.FileList;
+import org.moe.gradle.remote.file.Walker;
 import org.moe.gradle.utils.Require;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import static org.moe.gradle.MoePlugin.MOE;
-
 public class Server {
 
     private static final Logger LOG = Logging.getLogger(Server.class);
 
-    private static final String MOE_REMOTEBUILD_DISABLE = "moe.remotebuild.disable";
     private static final String SDK_ROOT_MARK = "REMOTE_MOE_SDK_ROOT___1234567890";
 
+    /**
+     * Lists the files uploaded to a persistent workspace, relative to the upload target.
+     */
+    private static final String UPLOADED_FILES_NAME = ".moe-uploaded-files";
+
+    private static final int REMOVE_BATCH_SIZE = 500;
+
     @NotNull
     final Session session;
 
-    @NotNull
+    /**
+     * Null for servers which are not bound to a project, see {@link #Server(Session, ServerHost, RemoteBuildOptions)}.
+     */
+    @Nullable
     private final MoePlugin plugin;
 
-    @NotNull
+    @Nullable
     private final ServerSettings settings;
 
+    @Nullable
+    private final RemoteBuildOptions remoteBuildOptions;
+
+    @NotNull
+    private final ServerHost host;
+
+    private boolean prepared;
+
+    @Nullable
+    private volatile ServerHealth health;
+
     @Nullable
     private String userHome;
 
@@ -105,21 +139,49 @@ public class Server {
         return Require.nonNull(remoteAARCH64);
     }
 
-    @Nullable
-    private Task moeRemoteServerSetupTask;
+    @NotNull
+    RemoteBuildOptions getRemoteBuildOptions() {
+        return plugin != null ? plugin.getExtension().remoteBuildOptions : Require.nonNull(remoteBuildOptions);
+    }
 
     @NotNull
-    public Task getMoeRemoteServerSetupTask() {
-        return Require.nonNull(moeRemoteServerSetupTask);
+    private MoePlugin getPlugin() {
+        return Require.nonNull(plugin, "Server is not bound to a project");
+    }
+
+    @NotNull
+    private ServerSettings getSettings() {
+        return Require.nonNull(settings, "Server is not bound to a project");
     }
 
     private final ExecutorService executor = Executors.newFixedThreadPool(1);
 
-    private Server(@NotNull JSch jsch, @NotNull Session session, @NotNull MoePlugin plugin, @NotNull ServerSettings settings) {
-        Require.nonNull(jsch);
+    /**
+     * Path, size and modification time of the local files at the time they were uploaded, keyed by their remote
+     * path. Used to skip unchanged files in later uploads of the same build.
+     */
+    @NotNull
+    private final Map<String, String> uploadStamps = new ConcurrentHashMap<>();
+
+    private static final int BACKGROUND_CLAIM = -1;
+
+    /**
+     * Remote paths of the files in running uploads, mapped to the number of regular uploads claiming them or to
+     * {@link #BACKGROUND_CLAIM}.
+     */
+    @NotNull
+    private final Map<String, Integer> uploadClaims = new HashMap<>();
+
+    @Nullable
+    private Future<?> backgroundUpload;
+
+    Server(@NotNull Session session, @NotNull MoePlugin plugin, @NotNull ServerSettings settings,
+           @NotNull ServerHost host) {
         this.session = Require.nonNull(session);
         this.plugin = Require.nonNull(plugin);
         this.settings = Require.nonNull(settings);
+        this.host = Require.nonNull(host);
+        this.remoteBuildOptions = null;
 
         this.userName = session.getUserName();
 
@@ -136,7 +198,7 @@ public class Server {
                     LOG.error("Failed to lock remote keychain", e);
                 }
                 try {
-                    if (buildDir != null) {
+                    if (buildDir != null && !settings.isPersistentWorkspace()) {
                         final ServerCommandRunner runner = new ServerCommandRunner(Server.this, "cleanup", "" +
                                 "rm -rf '" + getBuildDir() + "'");
                         runner.setQuiet(true);
@@ -145,75 +207,78 @@ public class Server {
                 } catch (Throwable e) {
                     LOG.error("Failed to cleanup on remote server", e);
                 }
+                cancelBackgroundUpload();
                 disconnect();
             }
         });
     }
 
-    @Nullable
-    public static Server setup(@NotNull MoePlugin plugin) {
-        Require.nonNull(plugin);
+    /**
+     * Creates a server which is not bound to a project. It can run commands and transfer files, but cannot set up the
+     * MOE SDK or a build directory.
+     */
+    Server(@NotNull Session session, @NotNull ServerHost host, @NotNull RemoteBuildOptions remoteBuildOptions) {
+        this.session = Require.nonNull(session);
+        this.plugin = null;
+        this.settings = null;
+        this.host = Require.nonNull(host);
+        this.remoteBuildOptions = Require.nonNull(remoteBuildOptions);
 
-        ServerSettings settings = new ServerSettings(plugin);
+        this.userName = session.getUserName();
+    }
 
-        final Project project = plugin.getProject();
-        project.getTasks().create("moeConfigRemote", task -> {
-            task.setGroup(MOE);
-            task.setDescription("Starts an interactive remote server connection configurator and tester");
-            task.getActions().add(t -> {
-                settings.interactiveConfig();
-            });
-        });
-        project.getTasks().create("moeTestRemote", task -> {
-            task.setGroup(MOE);
-            task.setDescription("Tests the connection to the remote server");
-            task.getActions().add(t -> {
-                if (!settings.testConnection()) {
-                    throw new GradleException("Remote connection test failed");
-                }
-            });
-        });
+    @NotNull
+    public ServerHost getHost() {
+        return host;
+    }
 
-        if (project.hasProperty(MOE_REMOTEBUILD_DISABLE)) {
-            return null;
+    /**
+     * Connects to the server and prepares the MOE SDK and the build directory on it.
+     */
+    synchronized void connectAndPrepare() {
+        if (prepared) {
+            return;
         }
-
-        if (!settings.isConfigured()) {
-            return null;
+        if (!session.isConnected()) {
+            try {
+                TunedSocketFactory.connect(session, 0);
+            } catch (JSchException e) {
+                throw new GradleException(e.getMessage(), e);
+            }
         }
 
-        // Create session
+        fetchArchitecture();
+        setupUserHome();
+        setupBuildDir();
+        prepareServerMOE();
+        prepared = true;
+    }
+
+    /**
+     * Measures the round-trip time, load average and free disk space of the server.
+     */
+    @NotNull
+    ServerHealth probe(int timeout) {
         try {
-            final JSch jsch = settings.getJSch();
-            final Session session = settings.getJSchSession(jsch);
-            return new Server(jsch, session, plugin, settings);
-        } catch (JSchException e) {
-            throw new GradleException(e.getMessage(), e);
+            if (!session.isConnected()) {
+                TunedSocketFactory.connect(session, timeout);
+            }
+            final long start = System.nanoTime();
+            execQuiet("true");
+            final long rtt = (System.nanoTime() - start) / 1000000;
+            health = ServerHealth.parse(host, rtt, execQuiet("sysctl -n hw.ncpu vm.loadavg && df -k \"$HOME\" | tail -n 1"));
+        } catch (Throwable e) {
+            health = ServerHealth.unreachable(host, e.getMessage());
         }
+        return health;
     }
 
-    public void connect() {
-        Require.nonNull(plugin);
-        moeRemoteServerSetupTask = plugin.getProject().getTasks().create("moeRemoteServerSetup", task -> {
-            task.setGroup(MOE);
-            task.setDescription("Sets up the SDK on the remote server");
-            task.getActions().add(t -> {
-
-                if (session.isConnected()) {
-                    return;
-                }
-                try {
-                    session.connect();
-                } catch (JSchException e) {
-                    throw new GradleException(e.getMessage(), e);
-                }
-
-                fetchArchitecture();
-                setupUserHome();
-                setupBuildDir();
-                prepareServerMOE();
-            });
-        });
+    /**
+     * Returns the result of the last probe, or null if the server was not probed yet.
+     */
+    @Nullable
+    public ServerHealth getHealth() {
+        return health;
     }
 
     private void fetchArchitecture() {
@@ -222,32 +287,92 @@ public class Server {
     }
 
     private void prepareServerMOE() {
-        final MoeSDK sdk = plugin.getSDK();
+        final MoeSDK sdk = getPlugin().getSDK();
+        final File localRoot = sdk.getRoot().getParentFile();
+        final URI target;
         try {
-            final FileList list = new FileList(sdk.getRoot().getParentFile(), new URI("file://" + getUserHome() + "/").resolve(".moe-remote"));
-            final String remoteGradlewZip = list.add(sdk.getRoot());
-            upload("upload sdk", list);
-            // Since zip's can't hold executable info, we need to apply it afterwards. Maybe we can be more selective if we want
-            // Or do it in ServerFileUploader, just making the files executable that also are locally
-            exec("make executable", "chmod -R +x " + list.getTarget().getPath());
-            sdkDir = new URI("file://" + remoteGradlewZip);
-        } catch (URISyntaxException e) {
+            target = new URI("file://" + getUserHome() + "/").resolve(".moe-remote/" + sdk.sdkVersion);
+            sdkDir = new URI("file://" + getRemotePath(target, localRoot.toPath().relativize(sdk.getRoot().toPath())));
+        } catch (URISyntaxException | IOException e) {
             throw new GradleException(e.getMessage(), e);
         }
 
+        final SdkManifest localManifest = SdkManifest.create(localRoot, sdk.getRoot());
+        final String remoteManifestPath = target.getPath() + "/" + SdkManifest.FILE_NAME;
+        if (localManifest.getHeader().equals(execQuiet("head -n 1 '" + remoteManifestPath + "' 2>/dev/null || true").trim())) {
+            LOG.quiet("MOE Remote Build (" + host + ") - MOE SDK is up-to-date on the remote server");
+        } else {
+            final SdkManifest remoteManifest = SdkManifest.parse(execQuiet("cat '" + remoteManifestPath + "' 2>/dev/null || true"));
+            final List<String> changed = localManifest.getChangedPaths(remoteManifest);
+
+            // Drop the stamp first, an interrupted upload must not look complete on the next connect
+            exec("prepare sdk dir", "mkdir -p '" + target.getPath() + "' && rm -f '" + remoteManifestPath + "'");
+
+            if (!changed.isEmpty()) {
+                final FileList list = new FileList(localRoot, target);
+                for (String path : changed) {
+                    list.add(new File(localRoot, path));
+                }
+                upload("upload sdk", list);
+            }
+
+            writeRemoteFile(remoteManifestPath, localManifest.serialize());
+        }
+
         exec("check MOE SDK path", "[ -d '" + sdkDir.getPath() + "' ]");
     }
 
+    private String execQuiet(@NotNull String command) {
+        final ServerCommandRunner runner = new ServerCommandRunner(this, "quiet command", command);
+        runner.setQuiet(true);
+        runner.run();
+        return runner.getOutput();
+    }
+
+    private void writeRemoteFile(@NotNull String remotePath, @NotNull String content) {
+        ChannelSftp sftp = null;
+        try {
+            sftp = (ChannelSftp) session.openChannel("sftp");
+            sftp.connect();
+            sftp.put(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), remotePath);
+        } catch (JSchException | SftpException e) {
+            throw new GradleException(e.getMessage(), e);
+        } finally {
+            if (sftp != null) {
+                sftp.disconnect();
+            }
+        }
+    }
+
     private void setupUserHome() {
         ServerCommandRunner runner = new ServerCommandRunner(this, "get home", "echo $HOME");
         runner.run();
         userHome = runner.getOutput().trim();
-        LOG.quiet("MOE Remote Build - REMOTE_HOME=" + getUserHome());
+        LOG.quiet("MOE Remote Build (" + host + ") - REMOTE_HOME=" + getUserHome());
     }
 
     private void setupBuildDir() {
-        buildDir = getTempDir();
-        LOG.quiet("MOE Remote Build - REMOTE_BUILD_DIR=" + buildDir.getPath());
+        if (getSettings().isPersistentWorkspace()) {
+            buildDir = getWorkspaceDir();
+        } else {
+            buildDir = getTempDir();
+        }
+        LOG.quiet("MOE Remote Build (" + host + ") - REMOTE_BUILD_DIR=" + buildDir.getPath());
+    }
+
+    private URI getWorkspaceDir() {
+        // Workspaces are keyed by the local user and project path, so different checkouts never share a tree
+        final String localUser = System.getProperty("user.name", "unknown").replaceAll("[^A-Za-z0-9._-]", "_");
+        final String projectHash = DigestUtils.md5Hex(getPlugin().getProject().getProjectDir().getAbsolutePath()).substring(0, 16);
+        final String path = getUserHome() + "/.moe-remote/workspaces/" + localUser + "-" + projectHash;
+
+        final ServerCommandRunner runner = new ServerCommandRunner(this, "workspace dir", "mkdir -p '" + path + "'");
+        runner.run();
+        try {
+            return new URI("file://" + path);
+        } catch (URISyntaxException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
     }
 
     public URI getTempDir() {
@@ -266,17 +391,208 @@ public class Server {
         }
         session.disconnect();
         userHome = null;
+        prepared = false;
+    }
+
+    boolean isAlive() {
+        if (!session.isConnected()) {
+            return false;
+        }
+        try {
+            execQuiet("true");
+            return true;
+        } catch (Throwable ignore) {
+            return false;
+        }
     }
 
     private void assertConnected() {
         if (!session.isConnected()) {
-            throw new GradleException("MOE Remote Build session in not connected");
+            throw new GradleException("MOE Remote Build session in not connected to " + host);
         }
     }
 
     public void upload(@NotNull String name, @NotNull FileList list) {
         assertConnected();
-        new ServerFileUploader(this, name, list).run();
+        new ServerFileUploader(this, name, list, false).run();
+    }
+
+    /**
+     * Removes the files of earlier uploads from a persistent workspace when they no longer exist locally, so files
+     * which were deleted or renamed locally are not built into the app. Does nothing without a persistent workspace,
+     * every build starts with an empty directory then.
+     */
+    public void removeDeletedFiles(@NotNull FileList list) {
+        Require.nonNull(list);
+
+        if (getSettings().isPersistentWorkspace()) {
+            removeDeletedFilesFromWorkspace(list);
+        }
+    }
+
+    /**
+     * Compares the list with the files of earlier uploads to the same target and removes the remote files which no
+     * longer exist locally. Files which were not uploaded, like the Xcode intermediates, are never removed.
+     */
+    synchronized void removeDeletedFilesFromWorkspace(@NotNull FileList list) {
+        assertConnected();
+
+        final Set<String> current = new HashSet<>();
+        list.walk(new Walker() {
+            @Override
+            public void visitFile(FileEntry entry, boolean isLast) {
+                current.add(entry.getRemotePath().toString().replace(File.separatorChar, '/'));
+            }
+
+            @Override
+            public void preVisitDirectory(DirectoryEntry entry, boolean isLast) {
+            }
+
+            @Override
+            public void postVisitDirectory(DirectoryEntry entry, boolean isLast) {
+            }
+        });
+
+        final String target = list.getTarget().getPath();
+        final String manifestPath = target + "/" + UPLOADED_FILES_NAME;
+        final Set<String> previous = new HashSet<>();
+        for (String line : execQuiet("cat " + ServerPreflight.quote(manifestPath) + " 2>/dev/null || true").split("\n")) {
+            if (!line.isEmpty()) {
+                previous.add(line);
+            }
+        }
+
+        // Other tasks upload different parts of the tree, only files which are gone locally are stale
+        final List<String> deleted = previous.stream()
+                .filter(path -> !current.contains(path) && !list.getLocalRoot().resolve(path).toFile().exists())
+                .sorted()
+                .collect(Collectors.toList());
+        for (int start = 0; start < deleted.size(); start += REMOVE_BATCH_SIZE) {
+            final List<String> batch = deleted.subList(start, Math.min(deleted.size(), start + REMOVE_BATCH_SIZE));
+            exec("remove deleted files", "cd " + ServerPreflight.quote(target) + " && rm -f -- " +
+                    batch.stream().map(ServerPreflight::quote).collect(Collectors.joining(" ")));
+            for (String path : batch) {
+                uploadStamps.remove(target + "/" + path);
+            }
+        }
+        if (!deleted.isEmpty()) {
+            LOG.quiet("MOE Remote Build (" + host + ") - removed " + deleted.size() + " deleted file(s) from the workspace");
+        }
+
+        final Set<String> uploaded = new TreeSet<>(previous);
+        uploaded.removeAll(deleted);
+        uploaded.addAll(current);
+        if (!uploaded.equals(previous)) {
+            writeRemoteFile(manifestPath, uploaded.stream().collect(Collectors.joining("\n", "", "\n")));
+        }
+    }
+
+    /**
+     * Starts uploading files in the background. Files uploaded this way are skipped by later uploads as long as their
+     * size and modification time are unchanged, so the next {@link #upload(String, FileList)} only transfers the
+     * delta. The list is created on the background thread.
+     * <p>
+     * Regular uploads only wait for the background upload when it transfers one of their files, files which are
+     * already being uploaded by a regular upload are left to it.
+     */
+    public synchronized void uploadInBackground(@NotNull String name, @NotNull Supplier<FileList> list) {
+        Require.nonNull(name);
+        Require.nonNull(list);
+
+        if (backgroundUpload != null) {
+            return;
+        }
+        final ExecutorService uploader = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "MOE background upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        backgroundUpload = uploader.submit(() -> {
+            assertConnected();
+            new ServerFileUploader(this, name + " (background)", list.get(), true).run();
+        });
+        uploader.shutdown();
+    }
+
+    /**
+     * Waits for the background upload to finish. A failed background upload is not fatal, the files it did not
+     * upload are transferred by the next regular upload.
+     */
+    public void awaitBackgroundUpload() {
+        final Future<?> future;
+        synchronized (this) {
+            future = backgroundUpload;
+        }
+        if (future == null) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new GradleException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            LOG.warn("MOE Remote Build - background upload failed: " + e.getCause().getMessage());
+        }
+    }
+
+    private synchronized void cancelBackgroundUpload() {
+        if (backgroundUpload != null) {
+            backgroundUpload.cancel(true);
+        }
+    }
+
+    /**
+     * Claims a remote path for an upload, regular uploads wait here while the background upload transfers the file.
+     *
+     * @return false if the file is already being uploaded and the background upload should skip it
+     */
+    boolean claimUpload(@NotNull String remotePath, boolean background) {
+        while (true) {
+            synchronized (uploadClaims) {
+                final Integer claims = uploadClaims.get(remotePath);
+                if (background) {
+                    if (claims != null) {
+                        return false;
+                    }
+                    uploadClaims.put(remotePath, BACKGROUND_CLAIM);
+                    return true;
+                }
+                if (claims == null || claims != BACKGROUND_CLAIM) {
+                    uploadClaims.put(remotePath, claims == null ? 1 : claims + 1);
+                    return true;
+                }
+            }
+            awaitBackgroundUpload();
+        }
+    }
+
+    void releaseUploads(@NotNull Collection<String> remotePaths) {
+        synchronized (uploadClaims) {
+            for (String remotePath : remotePaths) {
+                final Integer claims = uploadClaims.get(remotePath);
+                if (claims == null) {
+                    continue;
+                }
+                if (claims == BACKGROUND_CLAIM || claims == 1) {
+                    uploadClaims.remove(remotePath);
+                } else {
+                    uploadClaims.put(remotePath, claims - 1);
+                }
+            }
+        }
+    }
+
+    boolean isUploaded(@NotNull String remotePath, @NotNull String stamp) {
+        return stamp.equals(uploadStamps.get(remotePath));
+    }
+
+    void markUploaded(@NotNull Map<String, String> stamps) {
+        uploadStamps.putAll(stamps);
+    }
+
+    @NotNull
+    static String getUploadStamp(@NotNull File localFile) {
+        return localFile.getAbsolutePath() + ":" + localFile.length() + ":" + localFile.lastModified();
     }
 
     public void downloadFile(@NotNull String name, @NotNull String remoteFile, @NotNull File localOutputDir) {
@@ -285,8 +601,17 @@ public class Server {
     }
 
     public void downloadDirectory(@NotNull String name, @NotNull String remoteFile, @NotNull File localOutputDir) {
+        downloadDirectory(name, remoteFile, localOutputDir, Collections.emptyList());
+    }
+
+    /**
+     * Downloads the files of the remote directory which differ from the local copy and removes local files which
+     * no longer exist remotely. Directories matching the excluded name patterns are left untouched on both sides.
+     */
+    public void downloadDirectory(@NotNull String name, @NotNull String remoteFile, @NotNull File localOutputDir,
+                                  @NotNull Collection<String> excludedDirectories) {
         assertConnected();
-        new ServerFileDownloader(this, name, remoteFile, localOutputDir, true).run();
+        new ServerFileDownloader(this, name, remoteFile, localOutputDir, true, excludedDirectories).run();
     }
 
     public String exec(@NotNull String name, @NotNull String command) {
@@ -296,6 +621,44 @@ public class Server {
         return runner.getOutput();
     }
 
+    /**
+     * Runs the command after the preflight checks in a single round-trip. If a check fails, the command is not run and
+     * the exception lists the failing paths.
+     */
+    public String exec(@NotNull String name, @NotNull ServerPreflight preflight, @NotNull String command) {
+        Require.nonNull(preflight);
+        assertConnected();
+        final ServerCommandRunner runner = new ServerCommandRunner(this, name, preflight.wrap(command));
+        try {
+            runner.run();
+        } catch (GradleException e) {
+            final ServerPreflight.Result result = preflight.parse(runner.getOutput());
+            if (!result.isPassed()) {
+                throw new GradleException("Remote preflight of '" + name + "' failed on " + host + ":\n  "
+                        + String.join("\n  ", result.getFailures()), e);
+            }
+            throw e;
+        }
+        return runner.getOutput();
+    }
+
+    /**
+     * Runs only the preflight checks and returns the result for each path.
+     */
+    @NotNull
+    public ServerPreflight.Result preflight(@NotNull ServerPreflight preflight) {
+        Require.nonNull(preflight);
+        assertConnected();
+        final ServerCommandRunner runner = new ServerCommandRunner(this, "preflight", preflight.wrap(null));
+        runner.setQuiet(true);
+        try {
+            runner.run();
+        } catch (GradleException ignore) {
+            // Failures are reported in the output
+        }
+        return preflight.parse(runner.getOutput());
+    }
+
     public String getRemotePath(Path relative) {
         assertConnected();
 
@@ -310,7 +673,7 @@ public class Server {
         Require.nonNull(file);
 
         final Path filePath = file.toPath().toAbsolutePath();
-        final Path sdk = plugin.getSDK().getRoot().toPath().toAbsolutePath();
+        final Path sdk = getPlugin().getSDK().getRoot().toPath().toAbsolutePath();
 
         if (!filePath.getRoot().equals(sdk.getRoot())) {
             throw new IOException("non-sdk file");
@@ -378,9 +741,9 @@ public class Server {
     public void unlockRemoteKeychain() {
         assertConnected();
 
-        final String kc_name = settings.getKeychainName();
-        final String kc_pass = settings.getKeychainPass();
-        final int kc_lock_to = settings.getKeychainLockTimeout();
+        final String kc_name = getSettings().getKeychainName();
+        final String kc_pass = getSettings().getKeychainPass();
+        final int kc_lock_to = getSettings().getKeychainLockTimeout();
 
         final ServerCommandRunner runner = new ServerCommandRunner(this, "unlock keychain", "" +
                 "security unlock-keychain -p '" + kc_pass + "' " + kc_name + " && " +
@@ -392,7 +755,7 @@ public class Server {
     private void lockRemoteKeychain() {
         assertConnected();
 
-        final String kc_name = settings.getKeychainName();
+        final String kc_name = getSettings().getKeychainName();
 
         final ServerCommandRunner runner = new ServerCommandRunner(this, "lock keychain", "" +
                 "security lock-keychain " + kc_name);
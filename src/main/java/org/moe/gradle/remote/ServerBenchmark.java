@@ -0,0 +1,161 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.utils.Require;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Measures the transfer rate of the ssh connection with different cipher and compression settings.
+ * <p>
+ * Data is streamed through exec channels, so only the connection is measured, not the remote disk.
+ */
+class ServerBenchmark {
+
+    private static final Logger LOG = Logging.getLogger(ServerBenchmark.class);
+
+    private static final int PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    private static final String[] CIPHERS = {null, "aes128-ctr", "aes256-ctr", "aes128-cbc"};
+
+    private static final int[] COMPRESSION_LEVELS = {0, 1, 6};
+
+    private static final String[] WORDS = {"public", "private", "static", "final", "class", "void", "return", "if",
+            "else", "for", "new", "null", "this", "import", "org.moe.natj", "String", "int", "@NotNull", "=", "{", "}",
+            "(", ")", ";", "\n    ", "\n        ", "// ", "getValue", "setValue", "NSObject", "UIView", "alloc", "init"};
+
+    @NotNull
+    private final ServerSettings settings;
+
+    @NotNull
+    private final byte[] randomPayload = new byte[PAYLOAD_SIZE];
+
+    @NotNull
+    private final byte[] textPayload;
+
+    ServerBenchmark(@NotNull ServerSettings settings) {
+        this.settings = Require.nonNull(settings);
+
+        final Random random = new Random(0);
+        random.nextBytes(randomPayload);
+
+        // Source-like text, which compresses similarly to the uploaded project files
+        final StringBuilder text = new StringBuilder(PAYLOAD_SIZE + 64);
+        while (text.length() < PAYLOAD_SIZE) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        textPayload = text.substring(0, PAYLOAD_SIZE).getBytes(StandardCharsets.UTF_8);
+    }
+
+    void run(@NotNull JSch jsch, @NotNull ServerHost host) {
+        Require.nonNull(jsch);
+        Require.nonNull(host);
+
+        LOG.quiet("Benchmarking {} with {} MiB payloads", host, PAYLOAD_SIZE / (1024 * 1024));
+        for (String cipher : CIPHERS) {
+            for (int level : COMPRESSION_LEVELS) {
+                final String name = (cipher == null ? "default ciphers" : cipher) +
+                        (level == 0 ? ", no compression" : ", zlib level " + level);
+                try {
+                    final Session session = settings.getJSchSession(jsch, host, cipher, level);
+                    session.connect(30000);
+                    try {
+                        final double upload = measureUpload(session, randomPayload);
+                        final double uploadText = measureUpload(session, textPayload);
+                        final double download = measureDownload(session);
+                        LOG.quiet(String.format("  %-40s upload %7.2f MB/s, text upload %7.2f MB/s, download %7.2f MB/s",
+                                name, upload, uploadText, download));
+                    } finally {
+                        session.disconnect();
+                    }
+                } catch (JSchException | IOException e) {
+                    LOG.quiet(String.format("  %-40s failed: %s", name, e.getMessage()));
+                }
+            }
+        }
+    }
+
+    private static double measureUpload(@NotNull Session session, @NotNull byte[] payload)
+            throws JSchException, IOException {
+        final ChannelExec channel = open(session, "cat > /dev/null");
+        final long start = System.nanoTime();
+        try (OutputStream output = channel.getOutputStream()) {
+            channel.connect();
+            output.write(payload);
+        }
+        waitForExit(channel);
+        return getRate(payload.length, System.nanoTime() - start);
+    }
+
+    private static double measureDownload(@NotNull Session session) throws JSchException, IOException {
+        final ChannelExec channel = open(session, "head -c " + PAYLOAD_SIZE + " /dev/urandom");
+        final long start = System.nanoTime();
+        long total = 0;
+        try (InputStream input = channel.getInputStream()) {
+            channel.connect();
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        waitForExit(channel);
+        if (total != PAYLOAD_SIZE) {
+            throw new IOException("received " + total + " bytes instead of " + PAYLOAD_SIZE);
+        }
+        return getRate(total, System.nanoTime() - start);
+    }
+
+    @NotNull
+    private static ChannelExec open(@NotNull Session session, @NotNull String command) throws JSchException {
+        final ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        channel.setCommand(command);
+        return channel;
+    }
+
+    private static void waitForExit(@NotNull ChannelExec channel) throws IOException {
+        try {
+            while (!channel.isClosed()) {
+                Thread.sleep(5);
+            }
+        } catch (InterruptedException e) {
+            throw new GradleException(e.getMessage(), e);
+        } finally {
+            channel.disconnect();
+        }
+        if (channel.getExitStatus() != 0) {
+            throw new IOException("remote command failed with exit status " + channel.getExitStatus());
+        }
+    }
+
+    private static double getRate(long bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / (nanos / 1000000000.0);
+    }
+}
@@ -18,6 +18,7 @@ package org.moe.gradle.remote;
 
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.JSchException;
+import org.apache.commons.io.IOUtils;
 import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
@@ -28,6 +29,7 @@ import org.moe.gradle.utils.Require;
 import org.moe.gradle.utils.TermColor;
 
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 
 class ServerCommandRunner extends AbstractServerTask {
 
@@ -74,18 +76,21 @@ class ServerCommandRunner extends AbstractServerTask {
         channel.setCommand(command);
 
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        channel.setOutputStream(baos, true);
         channel.setErrStream(baos, true);
 
+        final InputStream input;
         try {
+            input = channel.getInputStream();
             channel.connect();
         } catch (JSchException e) {
             throw new GradleException(e.getMessage(), e);
         }
 
+        // Block on the output instead of polling, so short commands complete in about one round-trip
+        IOUtils.copy(input, baos);
         while (!channel.isClosed()) {
             try {
-                Thread.sleep(100);
+                Thread.sleep(5);
             } catch (InterruptedException e) {
                 throw new GradleException(e.getMessage(), e);
             }
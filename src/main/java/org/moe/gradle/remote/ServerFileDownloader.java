@@ -16,21 +16,49 @@ limitations under the License.
 
 package org.moe.gradle.remote;
 
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.gradle.api.GradleException;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.moe.common.utils.CloseableUtil;
 import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.utils.Require;
 import org.moe.gradle.utils.TermColor;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 class ServerFileDownloader extends AbstractServerTask {
 
@@ -47,13 +75,33 @@ class ServerFileDownloader extends AbstractServerTask {
 
     private final boolean recursive;
 
+    @NotNull
+    private final Collection<String> excludedDirectories;
+
+    private int numUpdated;
+
+    private int numUpToDate;
+
+    private int numRemoved;
+
     protected ServerFileDownloader(@NotNull Server server, @NotNull String name, @NotNull String remoteFile,
                                    @NotNull File localOutputDir, boolean recursive) {
+        this(server, name, remoteFile, localOutputDir, recursive, Collections.emptyList());
+    }
+
+    /**
+     * @param excludedDirectories name patterns of directories which are neither downloaded nor removed locally,
+     *                            only used in recursive mode
+     */
+    protected ServerFileDownloader(@NotNull Server server, @NotNull String name, @NotNull String remoteFile,
+                                   @NotNull File localOutputDir, boolean recursive,
+                                   @NotNull Collection<String> excludedDirectories) {
         super(server);
         this.name = Require.nonNull(name);
         this.remoteFile = Require.nonNull(remoteFile);
         this.localOutputDir = Require.nonNull(localOutputDir);
         this.recursive = recursive;
+        this.excludedDirectories = Require.nonNull(excludedDirectories);
         Require.TRUE(localOutputDir.isAbsolute(), "Internal error: file must be an absolute path");
     }
 
@@ -62,10 +110,6 @@ class ServerFileDownloader extends AbstractServerTask {
         return "FILE DOWNLOAD: " + name;
     }
 
-    protected enum Type {
-        FILE, DIRECTORY_ENTER, DIRECTORY_EXIT
-    }
-
     @Override
     protected void main() throws Exception {
         if (!localOutputDir.exists() && !localOutputDir.mkdirs()) {
@@ -78,35 +122,281 @@ class ServerFileDownloader extends AbstractServerTask {
         outlog.println();
 
         if (recursive) {
-            ServerCommandRunner commandRunner = new ServerCommandRunner(server, "test", "mktemp -d");
-            commandRunner.run();
-            String remoteZip = commandRunner.getOutput().trim() + "/zip.zip";
-            server.exec("zip directory", "cd " + remoteFile + "/../ && zip -r -X " + remoteZip + " " + Paths.get(remoteFile).getFileName());
-            Path tmp = Files.createTempFile("zip", ".zip");
+            final Map<String, String> remoteHashes = listRemoteFiles();
+            if (remoteHashes == null) {
+                downloadTarStream(null);
+            } else {
+                final List<String> changed = getChangedFiles(remoteHashes);
+                numUpToDate += remoteHashes.size() - changed.size();
+                if (!changed.isEmpty()) {
+                    downloadTarStream(changed);
+                }
+            }
+            outlog.printf("%s%d file(s) updated, %d file(s) up-to-date, %d file(s) removed%s\n",
+                    TermColor.FG_SET_YELLOW, numUpdated, numUpToDate, numRemoved, TermColor.FG_SET_DEFAULT);
+            outlog.flush();
+        } else {
             ChannelSftp sftp = (ChannelSftp) server.session.openChannel("sftp");
-            sftp.connect();
-            sftp.get(remoteZip, tmp.toString());
-            try (FileSystem fileSystem = FileSystems.newFileSystem(tmp, (ClassLoader)null)) {
-                Files.walk(fileSystem.getPath("/")).skip(1).forEach(e -> {
-                    Path target = localOutputDir.toPath().resolve(fileSystem.getPath("/").relativize(e).toString());
-                    try {
-                        if (target.getParent() != null) {
-                            Files.createDirectories(target.getParent());
-                        }
-                        if (target.toFile().isDirectory()) return;
-                        Files.copy(e, target, StandardCopyOption.REPLACE_EXISTING);
-                    } catch (IOException ex) {
-                        throw new RuntimeException(ex);
+            try {
+                sftp.connect();
+                sftp.get(remoteFile, localOutputDir.toPath().resolve(Paths.get(remoteFile).getFileName()).toString());
+            } finally {
+                sftp.disconnect();
+            }
+        }
+    }
+
+    @NotNull
+    private String getRemoteParent() {
+        final Path parent = Paths.get(remoteFile).getParent();
+        return parent == null ? "/" : parent.toString();
+    }
+
+    @NotNull
+    private String getRemoteName() {
+        return Paths.get(remoteFile).getFileName().toString();
+    }
+
+    /**
+     * Returns the md5 hashes of the remote files keyed by their path relative to the remote parent directory, or null
+     * if the listing failed.
+     */
+    @Nullable
+    private Map<String, String> listRemoteFiles() {
+        final StringBuilder prune = new StringBuilder();
+        for (String pattern : excludedDirectories) {
+            prune.append(prune.length() == 0 ? "\\( -type d \\( " : " -o ")
+                    .append("-name ").append(ServerPreflight.quote(pattern));
+        }
+        if (prune.length() > 0) {
+            prune.append(" \\) -prune \\) -o ");
+        }
+
+        final ServerCommandRunner runner = new ServerCommandRunner(server, "list files", "" +
+                "cd " + ServerPreflight.quote(getRemoteParent()) + " && " +
+                "find -L " + ServerPreflight.quote(getRemoteName()) + " " + prune + "-type f -exec md5 -r {} +");
+        runner.setQuiet(true);
+        try {
+            runner.run();
+        } catch (GradleException e) {
+            LOG.info("Failed to list remote files, downloading everything", e);
+            return null;
+        }
+
+        final Map<String, String> hashes = new HashMap<>();
+        for (String line : Require.nonNull(runner.getOutput()).split("\n")) {
+            // md5 -r prints '<hash> <path>'
+            final int space = line.indexOf(' ');
+            if (space != 32) {
+                if (!line.trim().isEmpty()) {
+                    LOG.info("Unexpected remote file listing line, downloading everything: " + line);
+                    return null;
+                }
+                continue;
+            }
+            hashes.put(line.substring(space + 1), line.substring(0, space).toLowerCase());
+        }
+        return hashes;
+    }
+
+    /**
+     * Compares the local files with the remote hashes, removes local files which do not exist remotely and returns
+     * the paths which have to be downloaded.
+     */
+    @NotNull
+    private List<String> getChangedFiles(@NotNull Map<String, String> remoteHashes) throws IOException {
+        final Map<String, Path> localFiles = listLocalFiles();
+        removeLocalFiles(localFiles, remoteHashes.keySet());
+
+        // Hashing is the expensive part for large bundles
+        return remoteHashes.entrySet().parallelStream()
+                .filter(entry -> {
+                    final Path local = localFiles.get(entry.getKey());
+                    if (local == null) {
+                        return true;
+                    }
+                    try (InputStream input = Files.newInputStream(local)) {
+                        return !entry.getValue().equals(DigestUtils.md5Hex(input));
+                    } catch (IOException ignore) {
+                        return true;
                     }
-                });
+                })
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the local files keyed by their path relative to the local output directory, in the same form as the
+     * remote paths.
+     */
+    @NotNull
+    private Map<String, Path> listLocalFiles() throws IOException {
+        final Path root = getLocalRoot();
+        final Path top = root.resolve(getRemoteName()).normalize();
+
+        final Map<String, Path> localFiles = new HashMap<>();
+        if (Files.isDirectory(top)) {
+            Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return isExcluded(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        localFiles.put(root.relativize(file).toString().replace(File.separatorChar, '/'), file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } else if (Files.isRegularFile(top)) {
+            localFiles.put(getRemoteName(), top);
+        }
+        return localFiles;
+    }
+
+    /**
+     * Removes the local files which do not exist remotely.
+     */
+    private void removeLocalFiles(@NotNull Map<String, Path> localFiles, @NotNull Set<String> remotePaths)
+            throws IOException {
+        for (Map.Entry<String, Path> entry : localFiles.entrySet()) {
+            if (!remotePaths.contains(entry.getKey())) {
+                Files.delete(entry.getValue());
+                ++numRemoved;
             }
+        }
+    }
+
+    @NotNull
+    private Path getLocalRoot() {
+        return localOutputDir.toPath().toAbsolutePath().normalize();
+    }
+
+    private boolean isExcluded(@NotNull Path dir) {
+        final String dirName = dir.getFileName().toString();
+        for (String pattern : excludedDirectories) {
+            if (FilenameUtils.wildcardMatch(dirName, pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Streams the specified paths relative to the remote parent directory, or the whole remote directory if paths is
+     * null, as a tar archive and extracts it.
+     */
+    private void downloadTarStream(@Nullable List<String> paths) throws Exception {
+        // Without a remote listing every file is sent, so unchanged and stale local files are handled here
+        final Set<String> extracted = paths == null ? new HashSet<>() : null;
+
+        // Symlinks are followed, the same way 'zip -r' handled them before
+        final ChannelExec channel = (ChannelExec) server.session.openChannel("exec");
+        if (paths == null) {
+            final StringBuilder exclude = new StringBuilder();
+            for (String pattern : excludedDirectories) {
+                exclude.append("--exclude ").append(ServerPreflight.quote(pattern)).append(" ");
+            }
+            channel.setCommand("cd " + ServerPreflight.quote(getRemoteParent()) + " && " +
+                    "tar -h -cf - " + exclude + ServerPreflight.quote(getRemoteName()));
         } else {
-            ChannelSftp sftp = (ChannelSftp) server.session.openChannel("sftp");
-            sftp.connect();
-            sftp.get(remoteFile, localOutputDir.toPath().resolve(Paths.get(remoteFile).getFileName()).toString());
-            sftp.disconnect();
+            // The file list is pumped by the channel's own thread, so it cannot block reading the archive
+            channel.setCommand("cd " + ServerPreflight.quote(getRemoteParent()) + " && tar -h -cf - -T -");
+            channel.setInputStream(new ByteArrayInputStream(
+                    (String.join("\n", paths) + "\n").getBytes(StandardCharsets.UTF_8)));
         }
 
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        channel.setErrStream(errors, true);
+        try {
+            final InputStream input = channel.getInputStream();
+            channel.connect();
+
+            final TarArchiveInputStream tar = new TarArchiveInputStream(input);
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                extract(tar, entry, extracted);
+            }
+            // Consume the end-of-archive padding, so the remote side can finish
+            IOUtils.copy(input, NullOutputStream.NULL_OUTPUT_STREAM);
+            CloseableUtil.tryClose(tar, LOG, "Failed to close stream");
+
+            while (!channel.isClosed()) {
+                Thread.sleep(100);
+            }
+            if (channel.getExitStatus() != 0) {
+                throw new ServerChannelException("Remote archive creation failed", errors.toString());
+            }
+            if (extracted != null) {
+                removeLocalFiles(listLocalFiles(), extracted);
+            }
+        } finally {
+            channel.disconnect();
+        }
     }
 
+    /**
+     * Extracts an entry. If extracted is not null, local files with the same content are kept and the relative paths
+     * of the extracted files are added to it.
+     */
+    private void extract(@NotNull TarArchiveInputStream tar, @NotNull TarArchiveEntry entry,
+                         @Nullable Set<String> extracted) throws IOException {
+        final Path root = getLocalRoot();
+        final Path target = root.resolve(entry.getName()).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("Archive entry points to external directory: " + entry.getName());
+        }
+
+        if (entry.isDirectory()) {
+            Files.createDirectories(target);
+            return;
+        }
+        if (!entry.isFile()) {
+            LOG.warn("Skipping unsupported archive entry: " + entry.getName());
+            return;
+        }
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+
+        final boolean executable = (entry.getMode() & 0100) != 0;
+        final File targetFile = target.toFile();
+        if (extracted == null) {
+            // Unchanged files are already filtered out by their remote hashes
+            Files.copy(tar, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            extracted.add(root.relativize(target).toString().replace(File.separatorChar, '/'));
+            if (targetFile.isFile() && targetFile.length() == entry.getSize()) {
+                // Same size, only replace the local file when the content differs
+                final Path part = target.resolveSibling("." + target.getFileName() + ".moe-part");
+                final MessageDigest digest = DigestUtils.getMd5Digest();
+                try (OutputStream output = new DigestOutputStream(Files.newOutputStream(part), digest)) {
+                    IOUtils.copy(tar, output);
+                }
+                final byte[] localMD5;
+                try (InputStream input = Files.newInputStream(target)) {
+                    localMD5 = DigestUtils.md5(input);
+                }
+                if (Arrays.equals(localMD5, digest.digest())) {
+                    Files.delete(part);
+                    if (executable && !targetFile.canExecute() && !targetFile.setExecutable(true)) {
+                        LOG.warn("Failed to set executable flag on " + targetFile);
+                    }
+                    ++numUpToDate;
+                    return;
+                }
+                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.copy(tar, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getModTime().getTime()));
+        if (executable && !targetFile.setExecutable(true)) {
+            LOG.warn("Failed to set executable flag on " + targetFile);
+        }
+        ++numUpdated;
+    }
 }
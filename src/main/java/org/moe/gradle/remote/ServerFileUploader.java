@@ -19,23 +19,36 @@ package org.moe.gradle.remote;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.SftpException;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.io.FilenameUtils;
 import org.gradle.api.GradleException;
 import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.options.RemoteBuildOptions;
 import org.moe.gradle.remote.file.DirectoryEntry;
 import org.moe.gradle.remote.file.FileEntry;
 import org.moe.gradle.remote.file.FileList;
 import org.moe.gradle.remote.file.Walker;
 import org.moe.gradle.utils.Require;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
 
 import static org.moe.gradle.utils.TermColor.*;
 
@@ -45,10 +58,14 @@ class ServerFileUploader extends AbstractServerTask {
 
     @NotNull private final FileList list;
 
-    protected ServerFileUploader(@NotNull Server server, @NotNull String name, @NotNull FileList list) {
+    private final boolean background;
+
+    protected ServerFileUploader(@NotNull Server server, @NotNull String name, @NotNull FileList list,
+                                 boolean background) {
         super(server);
         this.name = Require.nonNull(name);
         this.list = Require.nonNull(list);
+        this.background = background;
     }
 
     @Override
@@ -62,34 +79,81 @@ class ServerFileUploader extends AbstractServerTask {
         outlog.println(FG_SET_YELLOW + "    Remote: " + FG_SET_DEFAULT + list.getTarget().getPath());
         outlog.println();
 
+        final RemoteBuildOptions options = server.getRemoteBuildOptions();
+        final Map<String, String> stamps = new HashMap<>();
+        final List<String> claimed = new ArrayList<>();
+        Path zipPath = null;
         try {
-            Path zipPath = Files.createTempFile("MOE-Remote", ".zip");
-            Files.deleteIfExists(zipPath);
-            Map<String, String> env = new HashMap<>();
-            env.put("create", "true");
-            try (FileSystem zipFile = FileSystems.newFileSystem(URI.create(zipPath.toUri().toString().replace("file://", "jar:file:")), env)) {
-                list.walk(new Zipper(zipFile));
-                Files.createFile(zipFile.getPath("/.placeholder"));
+            zipPath = Files.createTempFile("MOE-Remote", ".zip");
+            final Zipper zipper;
+
+            // Entries are deflated on a worker pool into scatter files, then written to the archive in order
+            final ExecutorService compressors = Executors.newFixedThreadPool(options.getCompressionThreads());
+            try (ZipArchiveOutputStream zipFile = new ZipArchiveOutputStream(zipPath.toFile())) {
+                final ParallelScatterZipCreator creator = new ParallelScatterZipCreator(compressors,
+                        () -> new FileBasedScatterGatherBackingStore(File.createTempFile("MOE-Remote", ".scatter")),
+                        options.getCompressionLevel());
+                zipper = new Zipper(creator, options, stamps, claimed);
+                list.walk(zipper);
+
+                final ZipArchiveEntry placeholder = new ZipArchiveEntry(".placeholder");
+                placeholder.setMethod(ZipEntry.STORED);
+                creator.addArchiveEntry(placeholder, () -> new ByteArrayInputStream(new byte[0]));
+
+                creator.writeTo(zipFile);
+            } catch (InterruptedException | ExecutionException e) {
+                throw new GradleException("Failed to compress files: " + e.getMessage(), e);
+            } finally {
+                compressors.shutdownNow();
             }
 
-            String serverPath = Server.getRemotePath(server.getTempDir(), zipPath.getFileName());
-            final long start = System.nanoTime();
-            uploadFile(zipPath.toString(), serverPath);
-            final long stop = System.nanoTime();
-            final double elapsed = stop - start;
-            final double size = zipPath.toFile().length();
-            double speed = (size / 1024.0) / (elapsed / 1000000000.0);
-            String sizeM = "kB";
-            if (speed > 1024.0) {
-                speed /= 1024.0;
-                sizeM = "MB";
+            if (zipper.added == 0) {
+                outlog.printf("%sAll files are up-to-date%s\n", FG_SET_YELLOW, FG_SET_DEFAULT);
+                server.markUploaded(stamps);
+                return;
             }
-            outlog.printf(" %s(%.2f %s/s)%s\n", FG_SET_YELLOW, speed, sizeM, FG_SET_DEFAULT);
-            outlog.flush();
 
-            server.exec("unzip files", "unzip -o -d " + list.getTarget().getPath() + " " + serverPath);
+            final URI tempDir = server.getTempDir();
+            try {
+                String serverPath = Server.getRemotePath(tempDir, zipPath.getFileName());
+                final long start = System.nanoTime();
+                uploadFile(zipPath.toString(), serverPath);
+                final long stop = System.nanoTime();
+                final double elapsed = stop - start;
+                final double size = zipPath.toFile().length();
+                double speed = (size / 1024.0) / (elapsed / 1000000000.0);
+                String sizeM = "kB";
+                if (speed > 1024.0) {
+                    speed /= 1024.0;
+                    sizeM = "MB";
+                }
+                outlog.printf(" %s(%.2f %s/s)%s\n", FG_SET_YELLOW, speed, sizeM, FG_SET_DEFAULT);
+                outlog.flush();
+
+                server.exec("unzip files", "unzip -o -d " + list.getTarget().getPath() + " " + serverPath);
+            } finally {
+                removeRemoteTempDir(tempDir);
+            }
+            server.markUploaded(stamps);
         } catch (IOException e) {
             throw new GradleException("Unable to create temporary zip file: " + e.getMessage());
+        } finally {
+            server.releaseUploads(claimed);
+            if (zipPath != null && !zipPath.toFile().delete() && zipPath.toFile().exists()) {
+                outlog.println("Failed to delete " + zipPath);
+            }
+        }
+    }
+
+    private void removeRemoteTempDir(@NotNull URI tempDir) {
+        final ServerCommandRunner runner = new ServerCommandRunner(server, "remove temp dir", "" +
+                "rm -rf " + ServerPreflight.quote(tempDir.getPath()));
+        runner.setQuiet(true);
+        try {
+            runner.run();
+        } catch (GradleException e) {
+            // A leftover temp dir doesn't fail the upload
+            outlog.println("Failed to remove " + tempDir.getPath() + ": " + e.getMessage());
         }
     }
 
@@ -107,11 +171,27 @@ class ServerFileUploader extends AbstractServerTask {
     private class Zipper implements Walker {
         private final StringBuilder structure = new StringBuilder(1024);
 
-        private final FileSystem zipFile;
+        private final ParallelScatterZipCreator creator;
+
+        private final int compressionLevel;
+
+        private final Set<String> storedExtensions;
 
+        private final Map<String, String> stamps;
 
-        public Zipper(FileSystem zipFile) {
-            this.zipFile = zipFile;
+        private final List<String> claimed;
+
+        private int added;
+
+        public Zipper(ParallelScatterZipCreator creator, RemoteBuildOptions options, Map<String, String> stamps,
+                      List<String> claimed) {
+            this.creator = creator;
+            this.stamps = stamps;
+            this.claimed = claimed;
+            this.compressionLevel = options.getCompressionLevel();
+            this.storedExtensions = options.getStoredExtensions().stream()
+                    .map(String::toLowerCase)
+                    .collect(Collectors.toSet());
         }
 
         @Override
@@ -119,17 +199,42 @@ class ServerFileUploader extends AbstractServerTask {
             outlog.print(structure + (isLast ? "\\-- " : "+-- ") + entry.getName());
             try {
                 @NotNull final File localFile = entry.getLocalFile();
-                if (localFile.length() > /* only check md5 when file if larger than */ 256 * 1024 && server.checkFileMD5(Server.getRemotePath(list.getTarget(), entry.getRemotePath()),
+                final String remotePath = Server.getRemotePath(list.getTarget(), entry.getRemotePath());
+                if (!server.claimUpload(remotePath, background)) {
+                    outlog.printf(" %s(uploaded by another task)%s\n", FG_SET_YELLOW, FG_SET_DEFAULT);
+                    return;
+                }
+                claimed.add(remotePath);
+                // Taken before reading the file, a concurrent modification makes the next upload pick it up again
+                final String stamp = Server.getUploadStamp(localFile);
+                stamps.put(remotePath, stamp);
+                if (server.isUploaded(remotePath, stamp)) {
+                    outlog.printf(" %s(unchanged)%s\n", FG_SET_YELLOW, FG_SET_DEFAULT);
+                    return;
+                }
+                if (localFile.length() > /* only check md5 when file if larger than */ 256 * 1024 && server.checkFileMD5(remotePath,
                         localFile)) {
                     outlog.printf(" %s(up-to-date)%s\n", FG_SET_YELLOW, FG_SET_DEFAULT);
                     return;
                 }
 
-                if (entry.getRemotePath().getParent() != null) {
-                    Files.createDirectories(zipFile.getPath(entry.getRemotePath().getParent().toString()));
-                }
-
-                Files.copy(entry.getLocalFile().toPath(), zipFile.getPath(entry.getRemotePath().toString()));
+                final ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.getRemotePath().toString().replace(File.separatorChar, '/'));
+                // Keep local timestamps, so incremental builds in a persistent workspace see unchanged inputs
+                zipEntry.setTime(localFile.lastModified());
+                // unzip restores the permissions, so executables stay executable on the remote side
+                zipEntry.setUnixMode(localFile.canExecute() ? 0100755 : 0100644);
+                // Already compressed assets would only burn CPU time in deflate
+                final boolean store = compressionLevel == 0
+                        || storedExtensions.contains(FilenameUtils.getExtension(entry.getName()).toLowerCase());
+                zipEntry.setMethod(store ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                creator.addArchiveEntry(zipEntry, () -> {
+                    try {
+                        return Files.newInputStream(localFile.toPath());
+                    } catch (IOException e) {
+                        throw new GradleException("Failed to read " + localFile + ": " + e.getMessage(), e);
+                    }
+                });
+                added++;
                 outlog.println();
             } catch (Exception e) {
                 outlog.println();
@@ -137,7 +242,6 @@ class ServerFileUploader extends AbstractServerTask {
             }
         }
 
-
         @Override
         public void preVisitDirectory(DirectoryEntry entry, boolean isLast) {
             outlog.println(structure + (isLast ? "\\-- " : "+-- ") + FG_SET_BLUE + entry.getName() + FG_SET_DEFAULT);
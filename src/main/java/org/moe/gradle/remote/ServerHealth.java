@@ -0,0 +1,133 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+
+/**
+ * Result of probing a remote build server.
+ */
+public class ServerHealth {
+
+    /**
+     * Servers with less free space in the home directory are not used for building.
+     */
+    static final long MIN_FREE_DISK_KB = 1024 * 1024;
+
+    @NotNull
+    private final ServerHost host;
+
+    @Nullable
+    private final String error;
+
+    private final long rttMillis;
+
+    private final int cpuCount;
+
+    private final double loadAverage;
+
+    private final long freeDiskKB;
+
+    private ServerHealth(@NotNull ServerHost host, @Nullable String error, long rttMillis, int cpuCount,
+                         double loadAverage, long freeDiskKB) {
+        this.host = Require.nonNull(host);
+        this.error = error;
+        this.rttMillis = rttMillis;
+        this.cpuCount = cpuCount;
+        this.loadAverage = loadAverage;
+        this.freeDiskKB = freeDiskKB;
+    }
+
+    @NotNull
+    static ServerHealth unreachable(@NotNull ServerHost host, @Nullable String error) {
+        return new ServerHealth(host, error == null ? "unknown error" : error, -1, 0, 0, 0);
+    }
+
+    /**
+     * Parses the output of {@code sysctl -n hw.ncpu vm.loadavg && df -k "$HOME" | tail -n 1}.
+     */
+    @NotNull
+    static ServerHealth parse(@NotNull ServerHost host, long rttMillis, @NotNull String output) {
+        final String[] lines = output.trim().split("\n");
+        if (lines.length < 3) {
+            return unreachable(host, "unexpected probe output: " + output.trim());
+        }
+        try {
+            final int cpuCount = Integer.parseInt(lines[0].trim());
+            final String[] loads = lines[1].replace("{", "").replace("}", "").trim().split("\\s+");
+            final double loadAverage = Double.parseDouble(loads[0]);
+            final String[] df = lines[lines.length - 1].trim().split("\\s+");
+            final long freeDiskKB = Long.parseLong(df[3]);
+            return new ServerHealth(host, null, rttMillis, cpuCount, loadAverage, freeDiskKB);
+        } catch (RuntimeException e) {
+            return unreachable(host, "unexpected probe output: " + output.trim());
+        }
+    }
+
+    @NotNull
+    public ServerHost getHost() {
+        return host;
+    }
+
+    public boolean isReachable() {
+        return error == null;
+    }
+
+    public boolean isHealthy() {
+        return isReachable() && freeDiskKB >= MIN_FREE_DISK_KB;
+    }
+
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    public long getRttMillis() {
+        return rttMillis;
+    }
+
+    public int getCpuCount() {
+        return cpuCount;
+    }
+
+    public double getLoadAverage() {
+        return loadAverage;
+    }
+
+    /**
+     * Returns the one minute load average divided by the number of CPUs.
+     */
+    public double getRelativeLoad() {
+        return cpuCount > 0 ? loadAverage / cpuCount : loadAverage;
+    }
+
+    public long getFreeDiskKB() {
+        return freeDiskKB;
+    }
+
+    @Override
+    public String toString() {
+        if (!isReachable()) {
+            return host + ": unreachable (" + error + ")";
+        }
+        return String.format("%s: %s, rtt %d ms, load %.2f on %d cpus, %.1f GiB free", host,
+                isHealthy() ? "healthy" : "low disk space", rttMillis, loadAverage, cpuCount,
+                freeDiskKB / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Address of a remote build server in the {@code [user@]host[:port]} form.
+ */
+public class ServerHost {
+
+    @Nullable
+    private final String user;
+
+    @NotNull
+    private final String host;
+
+    private final int port;
+
+    ServerHost(@Nullable String user, @NotNull String host, int port) {
+        this.user = user;
+        this.host = Require.nonNull(host);
+        this.port = port;
+    }
+
+    @Nullable
+    public String getUser() {
+        return user;
+    }
+
+    @NotNull
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @NotNull
+    static ServerHost parse(@NotNull String spec, @Nullable String defaultUser, int defaultPort) throws IOException {
+        Require.nonNull(spec);
+
+        String value = spec.trim();
+        String user = defaultUser;
+        int port = defaultPort;
+
+        final int at = value.indexOf('@');
+        if (at >= 0) {
+            user = value.substring(0, at);
+            value = value.substring(at + 1);
+        }
+        final int colon = value.lastIndexOf(':');
+        if (colon >= 0) {
+            try {
+                port = Integer.parseInt(value.substring(colon + 1));
+            } catch (NumberFormatException ex) {
+                throw new IOException("illegal port in '" + spec + "'");
+            }
+            if (port < 0 || port > 65535) {
+                throw new IOException("illegal port in '" + spec + "'");
+            }
+            value = value.substring(0, colon);
+        }
+        if (value.isEmpty() || (user != null && user.isEmpty())) {
+            throw new IOException("illegal host '" + spec + "'");
+        }
+        return new ServerHost(user, value, port);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ServerHost that = (ServerHost) o;
+        return port == that.port && Objects.equals(user, that.user) && Objects.equals(host, that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(user, host, port);
+    }
+
+    @Override
+    public String toString() {
+        return (user == null ? "" : user + "@") + host + (port == 22 ? "" : ":" + port);
+    }
+}
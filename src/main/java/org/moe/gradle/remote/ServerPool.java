@@ -0,0 +1,390 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.moe.gradle.MoePlugin;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static org.moe.gradle.MoePlugin.MOE;
+
+/**
+ * Set of remote build servers.
+ * <p>
+ * Tasks acquire a server with an affinity key, tasks with the same key always run on the same server during a build.
+ * The server for a new key is picked by the configured scheduler: 'sticky' maps the project and the key to the same
+ * server in every build, 'least-loaded' picks the server with the lowest load average and fewest keys assigned so far.
+ * <p>
+ * Servers are probed before the setup, unreachable servers and servers without enough disk space are not used.
+ */
+public class ServerPool {
+
+    private static final Logger LOG = Logging.getLogger(ServerPool.class);
+
+    private static final String MOE_REMOTEBUILD_DISABLE = "moe.remotebuild.disable";
+
+    private static final String MOE_REMOTEBUILD_BENCHMARK = "moe.remotebuild.benchmark";
+
+    /**
+     * Affinity of the tasks working on the Xcode project, these depend on each other's remote files.
+     */
+    public static final String AFFINITY_XCODE = "xcode";
+
+    private static final int PROBE_TIMEOUT = 5000;
+
+    @Nullable
+    private final MoePlugin plugin;
+
+    @NotNull
+    private final String scheduler;
+
+    /**
+     * Prefix of the keys used by the 'sticky' scheduler, this keeps the mapping of a project stable between builds.
+     */
+    @NotNull
+    private final String stickyPrefix;
+
+    @NotNull
+    private final Consumer<Server> prepare;
+
+    @NotNull
+    private final List<Server> servers;
+
+    @NotNull
+    private final Map<String, Server> assignments = new HashMap<>();
+
+    @NotNull
+    private final Map<Server, Integer> loads = new HashMap<>();
+
+    @NotNull
+    private final Set<Server> unhealthy = new HashSet<>();
+
+    @Nullable
+    private Task moeRemoteServerSetupTask;
+
+    @NotNull
+    public Task getMoeRemoteServerSetupTask() {
+        return Require.nonNull(moeRemoteServerSetupTask);
+    }
+
+    private ServerPool(@NotNull MoePlugin plugin, @NotNull ServerSettings settings, @NotNull List<Server> servers) {
+        this(Require.nonNull(plugin), settings.getScheduler(), plugin.getProject().getProjectDir().getAbsolutePath(),
+                Server::connectAndPrepare, servers);
+    }
+
+    /**
+     * Creates a pool which is not bound to a project, {@link #connect()} cannot be used with it.
+     *
+     * @param prepare action preparing a server before tasks run on it
+     */
+    ServerPool(@Nullable MoePlugin plugin, @NotNull String scheduler, @NotNull String stickyPrefix,
+               @NotNull Consumer<Server> prepare, @NotNull List<Server> servers) {
+        this.plugin = plugin;
+        this.scheduler = Require.nonNull(scheduler);
+        this.stickyPrefix = Require.nonNull(stickyPrefix);
+        this.prepare = Require.nonNull(prepare);
+        this.servers = Require.sizeGT(servers, 0);
+        for (Server server : servers) {
+            loads.put(server, 0);
+        }
+    }
+
+    @Nullable
+    public static ServerPool setup(@NotNull MoePlugin plugin) {
+        Require.nonNull(plugin);
+
+        ServerSettings settings = new ServerSettings(plugin);
+
+        final Project project = plugin.getProject();
+        project.getTasks().create("moeConfigRemote", task -> {
+            task.setGroup(MOE);
+            task.setDescription("Starts an interactive remote server connection configurator and tester");
+            task.getActions().add(t -> {
+                settings.interactiveConfig();
+            });
+        });
+        project.getTasks().create("moeTestRemote", task -> {
+            task.setGroup(MOE);
+            task.setDescription("Tests the connection to the remote servers");
+            task.getActions().add(t -> {
+                if (!settings.testConnection()) {
+                    throw new GradleException("Remote connection test failed");
+                }
+                if (project.hasProperty(MOE_REMOTEBUILD_BENCHMARK)) {
+                    final ServerBenchmark benchmark = new ServerBenchmark(settings);
+                    try {
+                        final JSch jsch = settings.getJSch();
+                        for (ServerHost host : settings.getHosts()) {
+                            benchmark.run(jsch, host);
+                        }
+                    } catch (JSchException e) {
+                        throw new GradleException(e.getMessage(), e);
+                    }
+                }
+            });
+        });
+
+        if (project.hasProperty(MOE_REMOTEBUILD_DISABLE)) {
+            return null;
+        }
+
+        if (!settings.isConfigured()) {
+            return null;
+        }
+
+        // Create sessions
+        final List<Server> servers = new ArrayList<>();
+        try {
+            final JSch jsch = settings.getJSch();
+            for (ServerHost host : settings.getHosts()) {
+                servers.add(new Server(settings.getJSchSession(jsch, host), plugin, settings, host));
+            }
+        } catch (JSchException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+        final ServerPool pool = new ServerPool(plugin, settings, servers);
+        project.getTasks().create("moeRemoteStatus", task -> {
+            task.setGroup(MOE);
+            task.setDescription("Probes the remote servers and prints their status");
+            task.getActions().add(t -> {
+                for (ServerHealth health : pool.probe()) {
+                    LOG.quiet(health.toString());
+                }
+            });
+        });
+        return pool;
+    }
+
+    public void connect() {
+        final Project project = Require.nonNull(plugin, "Server pool is not bound to a project").getProject();
+        moeRemoteServerSetupTask = project.getTasks().create("moeRemoteServerSetup", task -> {
+            task.setGroup(MOE);
+            task.setDescription("Sets up the SDK on the remote servers");
+            task.getActions().add(t -> {
+                if (servers.size() == 1) {
+                    prepare.accept(servers.get(0));
+                    return;
+                }
+
+                for (ServerHealth health : probe()) {
+                    if (!health.isHealthy()) {
+                        LOG.warn("MOE Remote Build - skipping " + health);
+                    }
+                }
+                final Map<Server, Throwable> failures = runOnAll(prepare, 0);
+                synchronized (this) {
+                    for (Map.Entry<Server, Throwable> failure : failures.entrySet()) {
+                        LOG.warn("MOE Remote Build - failed to set up " + failure.getKey().getHost() + ": "
+                                + failure.getValue().getMessage());
+                        unhealthy.add(failure.getKey());
+                    }
+                    if (unhealthy.size() == servers.size()) {
+                        throw new GradleException("None of the remote build servers are available");
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Probes all servers in parallel.
+     */
+    @NotNull
+    public List<ServerHealth> probe() {
+        final Map<Server, Throwable> failures = runOnAll(server -> server.probe(PROBE_TIMEOUT), PROBE_TIMEOUT * 2);
+        final List<ServerHealth> results = new ArrayList<>();
+        synchronized (this) {
+            for (Server server : servers) {
+                ServerHealth health = server.getHealth();
+                if (failures.containsKey(server) || health == null) {
+                    final Throwable failure = failures.get(server);
+                    health = ServerHealth.unreachable(server.getHost(), failure == null ? null : failure.getMessage());
+                }
+                if (!health.isHealthy()) {
+                    unhealthy.add(server);
+                }
+                results.add(health);
+            }
+        }
+        return results;
+    }
+
+    @NotNull
+    private Map<Server, Throwable> runOnAll(@NotNull Consumer<Server> action, int timeout) {
+        final Map<Server, Throwable> failures = new HashMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(servers.size());
+        try {
+            final Map<Server, Future<?>> futures = new HashMap<>();
+            for (Server server : servers) {
+                if (!isUnhealthy(server)) {
+                    futures.put(server, executor.submit(() -> action.accept(server)));
+                }
+            }
+            final long deadline = System.currentTimeMillis() + timeout;
+            for (Map.Entry<Server, Future<?>> entry : futures.entrySet()) {
+                try {
+                    if (timeout > 0) {
+                        entry.getValue().get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    } else {
+                        entry.getValue().get();
+                    }
+                } catch (ExecutionException e) {
+                    failures.put(entry.getKey(), e.getCause());
+                } catch (TimeoutException e) {
+                    entry.getValue().cancel(true);
+                    failures.put(entry.getKey(), new TimeoutException("timed out"));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new GradleException(e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failures;
+    }
+
+    private synchronized boolean isUnhealthy(@NotNull Server server) {
+        return unhealthy.contains(server);
+    }
+
+    /**
+     * Runs an idempotent action on the server of the specified affinity. If the server becomes unreachable during
+     * the action, it is excluded from the pool and the action is retried on another server.
+     */
+    public void runWithFailover(@NotNull String affinity, @NotNull Consumer<Server> action) {
+        Require.nonNull(affinity);
+        Require.nonNull(action);
+
+        boolean replacement = false;
+        while (true) {
+            final Server server = acquire(affinity);
+            try {
+                // A replacement may be unreachable too, so it is prepared under the same failover
+                if (replacement) {
+                    prepare.accept(server);
+                }
+                action.accept(server);
+                return;
+            } catch (RuntimeException e) {
+                if (servers.size() == 1 || isAlive(server)) {
+                    throw e;
+                }
+                LOG.warn("MOE Remote Build - " + server.getHost() + " became unreachable, retrying '" + affinity
+                        + "' on another server");
+                synchronized (this) {
+                    unhealthy.add(server);
+                    assignments.remove(affinity);
+                }
+                replacement = true;
+            }
+        }
+    }
+
+    private static boolean isAlive(@NotNull Server server) {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(server::isAlive).get(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the server for tasks without a specific affinity.
+     */
+    @NotNull
+    public Server getDefaultServer() {
+        return acquire(AFFINITY_XCODE);
+    }
+
+    @NotNull
+    public List<Server> getServers() {
+        return Collections.unmodifiableList(servers);
+    }
+
+    /**
+     * Returns the server for the specified affinity key, assigning one if necessary.
+     */
+    @NotNull
+    public synchronized Server acquire(@NotNull String affinity) {
+        Require.nonNull(affinity);
+
+        Server server = assignments.get(affinity);
+        if (server != null) {
+            return server;
+        }
+
+        final List<Server> available = new ArrayList<>(servers);
+        available.removeAll(unhealthy);
+        if (available.isEmpty()) {
+            throw new GradleException("None of the remote build servers are available");
+        }
+
+        if (ServerSettings.SCHEDULER_LEAST_LOADED.equals(scheduler)) {
+            double best = Double.MAX_VALUE;
+            for (Server candidate : available) {
+                final ServerHealth health = candidate.getHealth();
+                final double score = loads.get(candidate) + (health == null ? 0 : health.getRelativeLoad());
+                if (score < best) {
+                    best = score;
+                    server = candidate;
+                }
+            }
+        } else {
+            // Walk from the preferred server, so the mapping only changes for keys of unavailable servers
+            final String key = stickyPrefix + "#" + affinity;
+            final int preferred = Math.floorMod(key.hashCode(), servers.size());
+            for (int idx = 0; server == null; idx++) {
+                final Server candidate = servers.get((preferred + idx) % servers.size());
+                if (available.contains(candidate)) {
+                    server = candidate;
+                }
+            }
+        }
+        assignments.put(affinity, server);
+        loads.put(server, loads.get(server) + 1);
+        if (servers.size() > 1) {
+            LOG.quiet("MOE Remote Build - '" + affinity + "' tasks run on " + server.getHost());
+        }
+        return server;
+    }
+}
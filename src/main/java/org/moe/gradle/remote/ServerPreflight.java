@@ -0,0 +1,146 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declarative list of remote files which must exist and directories which must be created before running a command.
+ * <p>
+ * The checks are turned into a shell prologue, so they run in the same round-trip as the command itself. Only failing
+ * paths are reported back on marker lines, which keeps the command output intact.
+ */
+public class ServerPreflight {
+
+    private static final String MARKER = "@@MOE-PREFLIGHT:";
+
+    private static final int EXIT_CODE = 97;
+
+    public enum Status {
+        OK, MISSING, MKDIR_FAILED
+    }
+
+    @NotNull
+    private final List<String> requiredFiles = new ArrayList<>();
+
+    @NotNull
+    private final List<String> directories = new ArrayList<>();
+
+    @NotNull
+    public ServerPreflight requireFile(@NotNull String path) {
+        requiredFiles.add(Require.nonNull(path));
+        return this;
+    }
+
+    @NotNull
+    public ServerPreflight mkdirs(@NotNull String path) {
+        directories.add(Require.nonNull(path));
+        return this;
+    }
+
+    /**
+     * Returns the shell script running the checks, followed by the specified command when the checks pass.
+     */
+    @NotNull
+    String wrap(@Nullable String command) {
+        final StringBuilder script = new StringBuilder("moe_pf=0; ");
+        for (String path : requiredFiles) {
+            script.append("[ -f ").append(quote(path)).append(" ] || { echo ")
+                    .append(quote(MARKER + Status.MISSING + ":" + path)).append("; moe_pf=1; }; ");
+        }
+        for (String path : directories) {
+            script.append("mkdir -p ").append(quote(path)).append(" || { echo ")
+                    .append(quote(MARKER + Status.MKDIR_FAILED + ":" + path)).append("; moe_pf=1; }; ");
+        }
+        script.append("[ $moe_pf -eq 0 ] || exit ").append(EXIT_CODE);
+        if (command != null) {
+            script.append("; ").append(command);
+        }
+        return script.toString();
+    }
+
+    /**
+     * Parses the per-path results from the output of the wrapped command.
+     */
+    @NotNull
+    Result parse(@Nullable String output) {
+        final Map<String, Status> results = new LinkedHashMap<>();
+        for (String path : requiredFiles) {
+            results.put(path, Status.OK);
+        }
+        for (String path : directories) {
+            results.put(path, Status.OK);
+        }
+        if (output != null) {
+            for (String line : output.split("\n")) {
+                if (!line.startsWith(MARKER)) {
+                    continue;
+                }
+                final String[] comps = line.substring(MARKER.length()).split(":", 2);
+                if (comps.length == 2) {
+                    results.put(comps[1], Status.valueOf(comps[0]));
+                }
+            }
+        }
+        return new Result(results);
+    }
+
+    @NotNull
+    static String quote(@NotNull String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    public static class Result {
+
+        @NotNull
+        private final Map<String, Status> results;
+
+        private Result(@NotNull Map<String, Status> results) {
+            this.results = Collections.unmodifiableMap(results);
+        }
+
+        @NotNull
+        public Map<String, Status> getResults() {
+            return results;
+        }
+
+        public boolean isPassed() {
+            return results.values().stream().allMatch(status -> status == Status.OK);
+        }
+
+        @NotNull
+        public List<String> getFailures() {
+            final List<String> failures = new ArrayList<>();
+            for (Map.Entry<String, Status> entry : results.entrySet()) {
+                if (entry.getValue() == Status.MISSING) {
+                    failures.add("missing file: " + entry.getKey());
+                } else if (entry.getValue() == Status.MKDIR_FAILED) {
+                    failures.add("failed to create directory: " + entry.getKey());
+                }
+            }
+            return failures;
+        }
+    }
+}
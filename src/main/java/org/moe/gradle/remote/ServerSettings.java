@@ -199,8 +199,96 @@ class ServerSettings {
         return value;
     });
 
+    private static final Key<Boolean> WORKSPACE_PERSISTENT_KEY = new Key<>("workspace.persistent", "keep the remote build directory between builds, defaults to 'false'", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        return getBoolean(value);
+    });
+
+    private static final Key<String> HOSTS_KEY = new Key<>("hosts", "additional build servers as a comma separated list of [user@]host[:port]", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        for (String spec : value.split(",")) {
+            ServerHost.parse(spec, null, 22);
+        }
+        return value;
+    });
+
+    static final String SCHEDULER_STICKY = "sticky";
+    static final String SCHEDULER_LEAST_LOADED = "least-loaded";
+
+    private static final Key<String> SCHEDULER_KEY = new Key<>("scheduler", "how tasks are distributed between build servers, 'sticky' or 'least-loaded', defaults to 'sticky'", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        final String trimmed = value.trim();
+        if (!SCHEDULER_STICKY.equals(trimmed) && !SCHEDULER_LEAST_LOADED.equals(trimmed)) {
+            throw new IOException("'" + value + "' is not a supported scheduler");
+        }
+        return trimmed;
+    });
+
+    private static final Key<String> SSH_CIPHERS_KEY = new Key<>("ssh.ciphers", "preferred ciphers as a comma separated list, defaults to the JSch defaults", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        final List<String> ciphers = new ArrayList<>();
+        for (String cipher : value.split(",")) {
+            final String trimmed = cipher.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (JSch.getConfig(trimmed) == null) {
+                LOG.warn("Cipher '" + trimmed + "' is not supported by JSch, ignoring it");
+                continue;
+            }
+            ciphers.add(trimmed);
+        }
+        if (ciphers.isEmpty()) {
+            throw new IOException("none of the ciphers in '" + value + "' are supported");
+        }
+        return String.join(",", ciphers);
+    });
+
+    private static final Key<Integer> SSH_COMPRESSION_KEY = new Key<>("ssh.compression", "zlib compression level of the ssh connection from 1 to 9, 0 disables compression, defaults to 0", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        final int i = getInteger(value);
+        if (i < 0 || i > 9) {
+            throw new IOException("'" + value + "' is not a number between 0 and 9");
+        }
+        return i;
+    });
+
+    private static final Key<Integer> SSH_KEEPALIVE_KEY = new Key<>("ssh.keepalive", "interval of keepalive messages in seconds, 0 disables them, defaults to 0", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        final int i = getInteger(value);
+        if (i < 0) {
+            throw new IOException("'" + value + "' is not a number grater than or equal to 0");
+        }
+        return i;
+    });
+
+    private static final Key<Integer> SSH_SOCKET_BUFFER_KEY = new Key<>("ssh.socketbuffer", "TCP send and receive buffer size in KiB, 0 uses the system default, defaults to 0", (plugin, value) -> {
+        if (value == null) {
+            return null;
+        }
+        final int i = getInteger(value);
+        if (i < 0) {
+            throw new IOException("'" + value + "' is not a number grater than or equal to 0");
+        }
+        return i;
+    });
+
     private static final Key<?>[] ALL_KEYS = new Key<?>[]{HOST_KEY, PORT_KEY, USER_KEY, KNOWNHOSTS_KEY,
-            IDENTITY_KEY, KEYCHAIN_NAME_KEY, KEYCHAIN_PASS_KEY, KEYCHAIN_LOCKTIMEOUT_KEY, GRADLE_REPOSITORIES_KEY};
+            IDENTITY_KEY, KEYCHAIN_NAME_KEY, KEYCHAIN_PASS_KEY, KEYCHAIN_LOCKTIMEOUT_KEY, GRADLE_REPOSITORIES_KEY,
+            WORKSPACE_PERSISTENT_KEY, HOSTS_KEY, SCHEDULER_KEY, SSH_CIPHERS_KEY, SSH_COMPRESSION_KEY, SSH_KEEPALIVE_KEY,
+            SSH_SOCKET_BUFFER_KEY};
 
     @NotNull
     private final Map<Key, Object> settings = new HashMap<>();
@@ -298,7 +386,47 @@ class ServerSettings {
     }
 
     public boolean isConfigured() {
-        return get(HOST_KEY) != null;
+        return get(HOST_KEY) != null || get(HOSTS_KEY) != null;
+    }
+
+    /**
+     * Returns the configured build servers, starting with the one specified by the host key.
+     */
+    @NotNull
+    public List<ServerHost> getHosts() {
+        final String username = get(USER_KEY);
+        final Integer port = get(PORT_KEY);
+        final int defaultPort = port == null ? 22 : port;
+
+        final List<ServerHost> hosts = new ArrayList<>();
+        final String host = get(HOST_KEY);
+        if (host != null) {
+            hosts.add(new ServerHost(username, host, defaultPort));
+        }
+        final String additional = get(HOSTS_KEY);
+        if (additional != null) {
+            for (String spec : additional.split(",")) {
+                if (spec.trim().isEmpty()) {
+                    continue;
+                }
+                final ServerHost serverHost;
+                try {
+                    serverHost = ServerHost.parse(spec, username, defaultPort);
+                } catch (IOException e) {
+                    throw new GradleException(e.getMessage(), e);
+                }
+                if (!hosts.contains(serverHost)) {
+                    hosts.add(serverHost);
+                }
+            }
+        }
+        return hosts;
+    }
+
+    @NotNull
+    public String getScheduler() {
+        final String value = get(SCHEDULER_KEY);
+        return value == null ? SCHEDULER_STICKY : value;
     }
 
     @NotNull
@@ -325,6 +453,31 @@ class ServerSettings {
         return value == null ? "mavenCentral()" : value;
     }
 
+    public boolean isPersistentWorkspace() {
+        final Boolean value = get(WORKSPACE_PERSISTENT_KEY);
+        return value != null && value;
+    }
+
+    @Nullable
+    public String getCiphers() {
+        return get(SSH_CIPHERS_KEY);
+    }
+
+    public int getCompressionLevel() {
+        final Integer value = get(SSH_COMPRESSION_KEY);
+        return value == null ? 0 : value;
+    }
+
+    public int getKeepAliveInterval() {
+        final Integer value = get(SSH_KEEPALIVE_KEY);
+        return value == null ? 0 : value;
+    }
+
+    public int getSocketBufferSize() {
+        final Integer value = get(SSH_SOCKET_BUFFER_KEY);
+        return value == null ? 0 : value;
+    }
+
     private static class OptionScreen {
 
         private Runnable beforeLoop;
@@ -572,32 +725,65 @@ class ServerSettings {
     }
 
     @NotNull
-    public Session getJSchSession(@NotNull JSch jsch) throws JSchException {
+    public Session getJSchSession(@NotNull JSch jsch, @NotNull ServerHost host) throws JSchException {
+        return getJSchSession(jsch, host, getCiphers(), getCompressionLevel());
+    }
+
+    /**
+     * Creates a session with the specified cipher preference and compression level, the other connection settings
+     * are taken from the configuration.
+     */
+    @NotNull
+    Session getJSchSession(@NotNull JSch jsch, @NotNull ServerHost host, @Nullable String ciphers,
+                           int compressionLevel) throws JSchException {
         Require.nonNull(jsch);
+        Require.nonNull(host);
 
-        final String host = get(HOST_KEY);
-        if (host == null) {
-            printError("host is not set");
-            return null;
+        final Session session = jsch.getSession(host.getUser(), host.getHost(), host.getPort());
+        if (ciphers != null) {
+            session.setConfig("cipher.s2c", ciphers);
+            session.setConfig("cipher.c2s", ciphers);
         }
-
-        final String username = get(USER_KEY);
-        final Integer port = get(PORT_KEY);
-        return jsch.getSession(username, host, port == null ? 22 : port);
+        if (compressionLevel > 0) {
+            session.setConfig("compression.s2c", "zlib@openssh.com,zlib,none");
+            session.setConfig("compression.c2s", "zlib@openssh.com,zlib,none");
+            session.setConfig("compression_level", Integer.toString(compressionLevel));
+        }
+        final int keepAlive = getKeepAliveInterval();
+        if (keepAlive > 0) {
+            session.setServerAliveInterval(keepAlive * 1000);
+        }
+        if (keepAlive > 0 || getSocketBufferSize() > 0) {
+            session.setSocketFactory(new TunedSocketFactory(session, getSocketBufferSize() * 1024, keepAlive > 0));
+        }
+        return session;
     }
 
     public boolean testConnection() {
+        final List<ServerHost> hosts = getHosts();
+        if (hosts.isEmpty()) {
+            printError("host is not set");
+            return false;
+        }
+        boolean success = true;
+        for (ServerHost host : hosts) {
+            success &= testConnection(host);
+        }
+        return success;
+    }
+
+    private boolean testConnection(@NotNull ServerHost host) {
         final Console console = System.console();
         if (console != null) {
-            console.printf("Testing remote server connection:\n");
+            console.printf("Testing remote server connection to %1$s:\n", host);
             console.printf("Connecting... (timeout: 30s)\n");
         } else {
-            LOG.quiet("Testing remote server connection:");
+            LOG.quiet("Testing remote server connection to {}:", host);
             LOG.quiet("Connecting... (timeout: 30s)");
         }
         final Session session;
         try {
-            session = getJSchSession(getJSch());
+            session = getJSchSession(getJSch(), host);
         } catch (JSchException e) {
             printError(e.getMessage());
             return false;
@@ -770,6 +956,16 @@ class ServerSettings {
         return i;
     }
 
+    private static boolean getBoolean(String value) throws IOException {
+        final String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(trimmed)) {
+            return false;
+        }
+        throw new IOException("'" + value + "' is not a boolean");
+    }
+
     private static File getFileWithProperty(@NotNull Project project, @NotNull String path) {
         Require.nonNull(project);
         Require.nonNull(path);
@@ -0,0 +1,98 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SocketFactory;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.utils.Require;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Creates the ssh sockets with the configured TCP buffer sizes and keepalive flag.
+ * <p>
+ * The buffer sizes are set before connecting, so the TCP window scale is negotiated for them. JSch does not pass the
+ * timeout of {@link Session#connect(int)} to socket factories, sessions using this factory should be connected with
+ * {@link #connect(Session, int)}.
+ */
+class TunedSocketFactory implements SocketFactory {
+
+    private static final String CONNECT_TIMEOUT_CONFIG = "moe.connect_timeout";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+    @NotNull
+    private final Session session;
+
+    private final int bufferSize;
+
+    private final boolean keepAlive;
+
+    TunedSocketFactory(@NotNull Session session, int bufferSize, boolean keepAlive) {
+        this.session = Require.nonNull(session);
+        this.bufferSize = bufferSize;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Connects the session with the specified timeout in milliseconds, 0 uses the default timeout of 30 seconds.
+     */
+    static void connect(@NotNull Session session, int timeout) throws JSchException {
+        session.setConfig(CONNECT_TIMEOUT_CONFIG, Integer.toString(timeout));
+        session.connect(timeout);
+    }
+
+    private int getConnectTimeout() {
+        final String value = session.getConfig(CONNECT_TIMEOUT_CONFIG);
+        final int timeout = value == null ? 0 : Integer.parseInt(value);
+        return timeout > 0 ? timeout : DEFAULT_CONNECT_TIMEOUT;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        final Socket socket = new Socket();
+        try {
+            if (bufferSize > 0) {
+                socket.setSendBufferSize(bufferSize);
+                socket.setReceiveBufferSize(bufferSize);
+            }
+            socket.setKeepAlive(keepAlive);
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), getConnectTimeout());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    @Override
+    public InputStream getInputStream(Socket socket) throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream(Socket socket) throws IOException {
+        return socket.getOutputStream();
+    }
+}
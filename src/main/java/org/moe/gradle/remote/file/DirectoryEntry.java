@@ -17,14 +17,11 @@ limitations under the License.
 package org.moe.gradle.remote.file;
 
 import org.moe.gradle.anns.NotNull;
-import org.moe.gradle.utils.Require;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 public class DirectoryEntry extends Entry implements EntryParent {
-    final List<Entry> entries = new ArrayList<>();
+    final Entries entries = new Entries();
 
     DirectoryEntry(@NotNull String name, @NotNull EntryParent parent) {
         super(name, parent);
@@ -34,7 +31,7 @@ public class DirectoryEntry extends Entry implements EntryParent {
     protected void walk(@NotNull Walker walker) throws IOException {
         final boolean isLast = parent.isLast(this);
         walker.preVisitDirectory(this, isLast);
-        for (Entry entry : entries) {
+        for (Entry entry : entries.values()) {
             entry.walk(walker);
         }
         walker.postVisitDirectory(this, isLast);
@@ -52,8 +49,6 @@ public class DirectoryEntry extends Entry implements EntryParent {
 
     @Override
     public boolean isLast(Entry entry) {
-        Require.TRUE(entries.contains(entry), "unexpected state");
-        Require.sizeGT(entries, 0);
-        return entries.indexOf(entry) == entries.size() - 1;
+        return entries.isLast(entry);
     }
 }
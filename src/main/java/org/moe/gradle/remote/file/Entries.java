@@ -0,0 +1,58 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote.file;
+
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Insertion ordered children of an {@link EntryParent}, indexed by name.
+ */
+class Entries {
+
+    @NotNull
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    @Nullable
+    private Entry last;
+
+    @Nullable
+    Entry get(@NotNull String name) {
+        return entries.get(name);
+    }
+
+    void add(@NotNull Entry entry) {
+        Require.nonNull(entry);
+        Require.TRUE(entries.put(entry.name, entry) == null, "unexpected state - duplicate entry");
+        last = entry;
+    }
+
+    boolean isLast(@NotNull Entry entry) {
+        Require.TRUE(entries.get(entry.name) == entry, "unexpected state");
+        return last == entry;
+    }
+
+    @NotNull
+    Collection<Entry> values() {
+        return entries.values();
+    }
+}
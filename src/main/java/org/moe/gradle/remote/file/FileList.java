@@ -30,9 +30,7 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -47,7 +45,7 @@ public class FileList implements EntryParent {
     private final URI target;
 
     @NotNull
-    private final List<Entry> entries = new ArrayList<>();
+    private final Entries entries = new Entries();
 
     public FileList(@NotNull File localRoot, @NotNull URI target) {
         this.localRoot = Require.nonNull(localRoot.getAbsoluteFile().toPath());
@@ -66,7 +64,7 @@ public class FileList implements EntryParent {
         Require.nonNull(walker);
 
         try {
-            for (Entry entry : entries) {
+            for (Entry entry : entries.values()) {
                 entry.walk(walker);
             }
         } catch (IOException ex) {
@@ -76,9 +74,7 @@ public class FileList implements EntryParent {
 
     @Override
     public boolean isLast(Entry entry) {
-        Require.TRUE(entries.contains(entry), "unexpected state");
-        Require.sizeGT(entries, 0);
-        return entries.indexOf(entry) == entries.size() - 1;
+        return entries.isLast(entry);
     }
 
     public String add(@NotNull File file) {
@@ -173,7 +169,7 @@ public class FileList implements EntryParent {
         Require.GT(relativePath.getNameCount(), 0, "unexpected state - relativePath.namecount <= 0");
 
         // Get entryParent and entries container
-        List<Entry> entries = this.entries;
+        Entries entries = this.entries;
         EntryParent entryParent = this;
         if (relativePath.getNameCount() > 1) {
             final DirectoryEntry directory = getDirectory(relativePath.getParent());
@@ -187,9 +183,9 @@ public class FileList implements EntryParent {
     }
 
     private static void insertFileEntry(@NotNull String name, @NotNull File localFile,
-                                        @NotNull EntryParent parent, @NotNull List<Entry> entries) {
+                                        @NotNull EntryParent parent, @NotNull Entries entries) {
         Require.GT(name.length(), 0, "unexpected state - rpath.filename.length <= 0");
-        final Entry entry = getEntry(entries, name);
+        final Entry entry = entries.get(name);
         if (entry != null) {
             Require.TRUE(entry instanceof FileEntry, "unexpected state - entry.class !~ FileEntry");
             Require.TRUE(((FileEntry) entry).getLocalFile().equals(localFile), "unexpected state - entry.localFile != localFile");
@@ -199,14 +195,6 @@ public class FileList implements EntryParent {
         }
     }
 
-    @Nullable
-    private static Entry getEntry(@NotNull List<Entry> entries, @NotNull String name) {
-        Require.nonNull(name);
-        Require.nonNull(entries);
-
-        return entries.stream().filter(entry -> entry.name.equals(name)).findFirst().orElse(null);
-    }
-
     @Override
     public DirectoryEntry getEntry() {
         throw new IllegalStateException();
@@ -221,9 +209,9 @@ public class FileList implements EntryParent {
         return getDirectory(path, entries, this, 0);
     }
 
-    private static DirectoryEntry getDirectory(Path path, List<Entry> entries, EntryParent entryParent, int idx) {
+    private static DirectoryEntry getDirectory(Path path, Entries entries, EntryParent entryParent, int idx) {
         final Path name = path.getName(idx);
-        DirectoryEntry entry = (DirectoryEntry) getEntry(entries, name.getFileName().toString());
+        DirectoryEntry entry = (DirectoryEntry) entries.get(name.getFileName().toString());
         if (entry == null) {
             entry = new DirectoryEntry(name.toString(), entryParent);
             entries.add(entry);
@@ -34,6 +34,7 @@ import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.groovy.closures.RuleClosure;
 import org.moe.gradle.groovy.closures.ValueClosure;
 import org.moe.gradle.remote.Server;
+import org.moe.gradle.remote.ServerPool;
 import org.moe.gradle.utils.FileUtils;
 import org.moe.gradle.utils.Require;
 
@@ -90,7 +91,7 @@ public abstract class AbstractBaseTask extends DefaultTask {
         remoteExecutionStatusSet = value;
         addConvention(CONVENTION_REMOTE_BUILD_HELPER, () -> {
             if (remoteExecutionStatusSet) {
-                if (getMoePlugin().getRemoteServer() != null) {
+                if (getMoePlugin().getRemoteServerPool() != null) {
                     return new Date().getTime();
                 } else {
                     return 0L;
@@ -323,8 +324,23 @@ public abstract class AbstractBaseTask extends DefaultTask {
         return Paths.get(getProject().getBuildDir().toString(), outPath, "sdk");
     }
 
+    /**
+     * Tasks with the same affinity run on the same remote server.
+     */
+    @Internal
+    @NotNull
+    protected String getRemoteAffinity() {
+        return ServerPool.AFFINITY_XCODE;
+    }
+
+    @Internal
+    @Nullable
+    protected Server getRemoteServer() {
+        return getMoePlugin().getRemoteServer(getRemoteAffinity());
+    }
+
     protected void linkSDK() {
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
         if (remoteServer != null) {
             final Path outPath;
             try {
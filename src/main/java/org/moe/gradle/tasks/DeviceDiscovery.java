@@ -0,0 +1,199 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.tasks;
+
+import org.apache.tools.ant.taskdefs.condition.Os;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.moe.common.utils.SimCtl;
+import org.moe.gradle.MoePlugin;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+import org.moe.gradle.utils.Require;
+import org.moe.gradle.utils.TaskUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Discovers connected devices and available simulators.
+ * <p>
+ * Discoveries run in the background, so they can be started early, when the task graph is ready, and devices and
+ * simulators are discovered concurrently. Results are shared by the listing and launch tasks for a short time after the
+ * discovery completed, as devices may be connected and simulators booted or shut down at any time. Results of
+ * discoveries started early are kept longer, as they complete while the app is being built. Each plugin instance has
+ * its own discoveries, so they don't outlive the build.
+ */
+public class DeviceDiscovery {
+
+    private static final Logger LOG = Logging.getLogger(DeviceDiscovery.class);
+
+    /**
+     * Time results are shared for after their discovery completed.
+     */
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Time results of discoveries started early are shared for after they completed.
+     */
+    private static final long PREFETCH_TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    /**
+     * Discoveries block on external processes, so they don't run on the common pool, which has a single thread on
+     * two-core hosts. Two threads let the device and simulator discoveries run concurrently.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        final Thread thread = new Thread(r, "moe-device-discovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @NotNull
+    private final MoePlugin plugin;
+
+    @Nullable
+    private Discovery<String> devices;
+
+    @Nullable
+    private Discovery<List<SimCtl.Device>> simulators;
+
+    private static class Discovery<T> {
+        final CompletableFuture<T> future;
+
+        final long ttlNanos;
+
+        /**
+         * Time the discovery completed, or {@link Long#MAX_VALUE} while it is running.
+         */
+        volatile long completed = Long.MAX_VALUE;
+
+        Discovery(@NotNull Supplier<T> supplier, long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return supplier.get();
+                } finally {
+                    completed = System.nanoTime();
+                }
+            }, EXECUTOR);
+        }
+
+        boolean isValid() {
+            if (future.isCompletedExceptionally()) {
+                return false;
+            }
+            final long time = completed;
+            return time == Long.MAX_VALUE || System.nanoTime() - time < ttlNanos;
+        }
+
+        @NotNull
+        T get(@NotNull String message) {
+            final T result;
+            try {
+                result = future.join();
+            } catch (CompletionException e) {
+                throw new GradleException(message, e.getCause());
+            }
+            return result;
+        }
+    }
+
+    public DeviceDiscovery(@NotNull MoePlugin plugin) {
+        this.plugin = Require.nonNull(plugin);
+    }
+
+    /**
+     * Starts discovering connected devices ahead of their use, unless a pending or recent discovery can be reused.
+     */
+    public synchronized void discoverDevices() {
+        discoverDevices(PREFETCH_TTL_NANOS);
+    }
+
+    private synchronized void discoverDevices(long ttlNanos) {
+        if (devices == null || !devices.isValid()) {
+            LOG.info("Discovering devices");
+            devices = new Discovery<>(() -> Launchers.listDevices(plugin), ttlNanos);
+        }
+    }
+
+    /**
+     * Starts discovering available simulators ahead of their use, unless a pending or recent discovery can be reused.
+     */
+    public synchronized void discoverSimulators() {
+        discoverSimulators(PREFETCH_TTL_NANOS);
+    }
+
+    private synchronized void discoverSimulators(long ttlNanos) {
+        if (simulators == null || !simulators.isValid()) {
+            LOG.info("Discovering simulators");
+            simulators = new Discovery<>(() -> {
+                if (!Os.isFamily(Os.FAMILY_MAC) || !TaskUtils.checkExec(plugin.getProject(), "which", "xcrun")) {
+                    return Collections.emptyList();
+                }
+                try {
+                    return SimCtl.getDevices();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, ttlNanos);
+        }
+    }
+
+    /**
+     * Returns the output of the device launcher's device list.
+     *
+     * @return device list
+     */
+    @NotNull
+    public String getDevices() {
+        final Discovery<String> discovery;
+        synchronized (this) {
+            discoverDevices(TTL_NANOS);
+            discovery = devices;
+        }
+        return discovery.get("Failed to get list of devices");
+    }
+
+    /**
+     * Returns the available simulators.
+     *
+     * @return simulators
+     */
+    @NotNull
+    public List<SimCtl.Device> getSimulators() {
+        final Discovery<List<SimCtl.Device>> discovery;
+        synchronized (this) {
+            discoverSimulators(TTL_NANOS);
+            discovery = simulators;
+        }
+        return discovery.get("Failed to get list of simulators");
+    }
+
+    /**
+     * Drops the shared simulator list, for example after a simulator was booted.
+     */
+    public synchronized void invalidateSimulators() {
+        simulators = null;
+    }
+}
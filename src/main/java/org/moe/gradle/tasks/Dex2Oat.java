@@ -31,6 +31,8 @@ import org.moe.gradle.anns.IgnoreUnused;
 import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.remote.Server;
+import org.moe.gradle.remote.ServerPool;
+import org.moe.gradle.remote.ServerPreflight;
 import org.moe.gradle.remote.file.FileList;
 import org.moe.gradle.utils.Arch;
 import org.moe.gradle.utils.Mode;
@@ -187,87 +189,22 @@ public class Dex2Oat extends AbstractBaseTask {
         this.destOatFile = destOatFile;
     }
 
+    @Internal
+    @NotNull
+    @Override
+    protected String getRemoteAffinity() {
+        // Outputs are downloaded and uploaded again by XcodeBuild, so each arch family can compile on its own host
+        return "dex2oat-" + getArchFamily();
+    }
+
     @Override
     protected void run() {
         getMoePlugin().requireMacHostOrRemoteServerConfig(this);
 
-        final Server remoteServer = getMoePlugin().getRemoteServer();
-        if (remoteServer != null) {
-            final String dex2oatExec;
-            final String imageClasses;
-            try {
-                dex2oatExec = remoteServer.getSDKRemotePath(getDex2oatExec());
-                imageClasses = remoteServer.getSDKRemotePath(getImageClasses());
-            } catch (IOException e) {
-                throw new GradleException("Unsupported configuration", e);
-            }
-
-            final FileList fileList = new FileList(getProject().getProjectDir(), remoteServer.getBuildDir());
-            StringBuilder dexFiles = new StringBuilder();
-            StringBuilder remoteDexFilesCheck = new StringBuilder();
-            getInputFiles().forEach(it -> {
-                String path;
-                boolean needsUpload = false;
-                try {
-                    path = remoteServer.getSDKRemotePath(it);
-                } catch (IOException ignore) {
-                    needsUpload = true;
-                    try {
-                        path = getInnerProjectRelativePath(it).toString();
-                    } catch (IOException e) {
-                        throw new GradleException("Unsupported configuration", e);
-                    }
-                }
-                if (dexFiles.length() > 0) {
-                    dexFiles.append(':');
-                    remoteDexFilesCheck.append(" && ");
-                }
-                if (needsUpload) {
-                    final String remotePath = fileList.add(it);
-                    dexFiles.append(remotePath);
-                    remoteDexFilesCheck.append("[ -f '").append(remotePath).append("' ]");
-                } else {
-                    dexFiles.append(path);
-                    remoteDexFilesCheck.append("[ -f '").append(path).append("' ]");
-                }
-            });
-            remoteServer.upload("dex2oat inputs", fileList);
-            remoteServer.exec("dex2oat inputs check", remoteDexFilesCheck.toString());
-
-            final Path destArtRel;
-            final Path destOatRel;
-            try {
-                destArtRel = getInnerProjectRelativePath(getDestImageFile());
-                destOatRel = getInnerProjectRelativePath(getDestOatFile());
-            } catch (IOException e) {
-                throw new GradleException("Unsupported configuration", e);
-            }
-            final String remoteDestArt = remoteServer.getRemotePath(destArtRel);
-            final String remoteDestOat = remoteServer.getRemotePath(destOatRel);
-
-            remoteServer.exec("prepare output directories", "" +
-                    "mkdir -p `dirname " + remoteDestArt + "` && " +
-                    "mkdir -p `dirname " + remoteDestOat + "`");
-
-            String optionalRosetta = "";
-            if (remoteServer.isRemoteAARCH64() && !Arch.FAMILY_ARM64.equalsIgnoreCase(getArchFamily())) {
-                optionalRosetta = "arch --x86_64 ";
-            }
-
-            remoteServer.exec("dex2oat", optionalRosetta + dex2oatExec + " " +
-                    "--instruction-set=" + Arch.validateArchFamily(getArchFamily()) + " " +
-                    "--base=0x" + Long.toHexString(getBase()) + " " +
-                    "--compiler-backend=" + validateBackend(getCompilerBackend()) + " " +
-                    (getEmitDebugInfo() ? "--generate-debug-info" : "--no-generate-debug-info") + " " +
-                    "--image=" + remoteDestArt + " " +
-                    "--image-classes=" + imageClasses + " " +
-                    "--oat-file=" + remoteDestOat + " " +
-                    "--dex-file=" + dexFiles
-            );
-
-            remoteServer.downloadFile("art", remoteDestArt, getDestImageFile().getParentFile());
-            remoteServer.downloadFile("oat", remoteDestOat, getDestOatFile().getParentFile());
-
+        final ServerPool remoteServerPool = getMoePlugin().getRemoteServerPool();
+        if (remoteServerPool != null) {
+            // Inputs are uploaded again on retry, so the compilation can move to another server
+            remoteServerPool.runWithFailover(getRemoteAffinity(), this::runRemote);
         } else {
             exec(spec -> {
                 // Set executable
@@ -315,6 +252,78 @@ public class Dex2Oat extends AbstractBaseTask {
         }
     }
 
+    private void runRemote(@NotNull Server remoteServer) {
+        final String dex2oatExec;
+        final String imageClasses;
+        try {
+            dex2oatExec = remoteServer.getSDKRemotePath(getDex2oatExec());
+            imageClasses = remoteServer.getSDKRemotePath(getImageClasses());
+        } catch (IOException e) {
+            throw new GradleException("Unsupported configuration", e);
+        }
+
+        final FileList fileList = new FileList(getProject().getProjectDir(), remoteServer.getBuildDir());
+        StringBuilder dexFiles = new StringBuilder();
+        final ServerPreflight preflight = new ServerPreflight();
+        getInputFiles().forEach(it -> {
+            String path;
+            boolean needsUpload = false;
+            try {
+                path = remoteServer.getSDKRemotePath(it);
+            } catch (IOException ignore) {
+                needsUpload = true;
+                try {
+                    path = getInnerProjectRelativePath(it).toString();
+                } catch (IOException e) {
+                    throw new GradleException("Unsupported configuration", e);
+                }
+            }
+            if (dexFiles.length() > 0) {
+                dexFiles.append(':');
+            }
+            if (needsUpload) {
+                path = fileList.add(it);
+            }
+            dexFiles.append(path);
+            preflight.requireFile(path);
+        });
+        remoteServer.upload("dex2oat inputs", fileList);
+
+        final Path destArtRel;
+        final Path destOatRel;
+        try {
+            destArtRel = getInnerProjectRelativePath(getDestImageFile());
+            destOatRel = getInnerProjectRelativePath(getDestOatFile());
+        } catch (IOException e) {
+            throw new GradleException("Unsupported configuration", e);
+        }
+        final String remoteDestArt = remoteServer.getRemotePath(destArtRel);
+        final String remoteDestOat = remoteServer.getRemotePath(destOatRel);
+
+        preflight.mkdirs(remoteServer.getRemotePath(destArtRel.getParent()));
+        preflight.mkdirs(remoteServer.getRemotePath(destOatRel.getParent()));
+
+        String optionalRosetta = "";
+        if (remoteServer.isRemoteAARCH64() && !Arch.FAMILY_ARM64.equalsIgnoreCase(getArchFamily())) {
+            optionalRosetta = "arch --x86_64 ";
+        }
+
+        // Inputs are checked and output directories are created in the same round-trip as the compilation
+        remoteServer.exec("dex2oat", preflight, optionalRosetta + dex2oatExec + " " +
+                "--instruction-set=" + Arch.validateArchFamily(getArchFamily()) + " " +
+                "--base=0x" + Long.toHexString(getBase()) + " " +
+                "--compiler-backend=" + validateBackend(getCompilerBackend()) + " " +
+                (getEmitDebugInfo() ? "--generate-debug-info" : "--no-generate-debug-info") + " " +
+                "--image=" + remoteDestArt + " " +
+                "--image-classes=" + imageClasses + " " +
+                "--oat-file=" + remoteDestOat + " " +
+                "--dex-file=" + dexFiles
+        );
+
+        remoteServer.downloadFile("art", remoteDestArt, getDestImageFile().getParentFile());
+        remoteServer.downloadFile("oat", remoteDestOat, getDestOatFile().getParentFile());
+    }
+
     private Dex dexTaskDep;
 
     @NotNull
@@ -227,6 +227,7 @@ public class GenerateUIObjCInterfaces extends AbstractBaseTask {
             final String after = file.toString();
             if (!after.equals(before)) {
                 file.save();
+                getMoePlugin().getXcodeProjectCache().invalidate(getXcodeProjectFile());
             }
         } catch (Throwable e) {
             throw new GradleException("Failed to update Xcode project", e);
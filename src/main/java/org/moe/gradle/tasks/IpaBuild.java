@@ -41,6 +41,7 @@ import org.moe.gradle.utils.ExportOptionsPlistManager;
 import org.moe.gradle.utils.Mode;
 import org.moe.gradle.utils.Require;
 import org.moe.gradle.utils.TaskUtils;
+import org.moe.gradle.utils.XcodeProjectCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -524,7 +525,7 @@ public class IpaBuild extends AbstractBaseTask {
                     + "moe.signing.developmentTeam property");
         }
 
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
         final File inputApp = Require.nonNull(getInputApp());
 
         if (!isUserExportPlist()) {
@@ -688,7 +689,7 @@ public class IpaBuild extends AbstractBaseTask {
 
     private List<String> calculateArchiveArgs() {
         final List<String> args = new ArrayList<>();
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
 
         args.add("archive");
 
@@ -780,7 +781,7 @@ public class IpaBuild extends AbstractBaseTask {
 
     private List<String> calculateExportArchiveArgs() {
         final List<String> args = new ArrayList<>();
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
 
         final String _archiveFile;
         final String _ipaFile;
@@ -821,41 +822,23 @@ public class IpaBuild extends AbstractBaseTask {
         try {
             // Open Xcode project
             final File xcodeproj = Require.nonNull(getXcodeProjectFile());
-            final ProjectFile project = new ProjectFile(xcodeproj);
+            final XcodeProjectCache.ParsedProject project = getMoePlugin().getXcodeProjectCache().get(xcodeproj);
             final String target = Require.nonNull(getTarget());
 
             // Search for target with name
-            final java.util.Optional<Map.Entry<PBXObjectRef<? extends PBXObject>, PBXObject>> optional = project.getRoot()
-                    .getObjects().entrySet().stream()
-                    .filter(field -> field.getValue() instanceof PBXNativeTarget && ((PBXNativeTarget)field.getKey()
-                            .getReferenced()).getName().equals(target)).findFirst();
-            Require.TRUE(optional.isPresent(),
+            final Map<String, XCBuildConfiguration> targetConfigurations = project.getTargetConfigurations(target);
+            Require.nonNull(targetConfigurations,
                     "Target with name '" + target + "' doesn't exist in Xcode project at " + xcodeproj
                             .getAbsolutePath());
-            PBXNativeTarget nTarget = (PBXNativeTarget)optional.get().getValue();
 
             // Search for build configuration with name
-            XCConfigurationList xcConfigurationList = nTarget.getBuildConfigurationList().getReferenced();
-            for (PBXObjectRef<XCBuildConfiguration> ref : xcConfigurationList.getOrCreateBuildConfigurations()) {
-                XCBuildConfiguration xcBuildConfiguration = ref.getReferenced();
-                if (xcBuildConfiguration.getName().equals(Mode.RELEASE.getXcodeCompatibleName())) {
-                    final NextStep developmentTeam = xcBuildConfiguration.getOrCreateBuildSettings().get("DEVELOPMENT_TEAM");
-                    if (developmentTeam != null && ((Value)developmentTeam).value.length() != 0) {
-                        return ((Value) developmentTeam).value;
-                    }
-                }
+            String developmentTeam = getDevelopmentTeam(targetConfigurations.get(Mode.RELEASE.getXcodeCompatibleName()));
+            if (developmentTeam != null) {
+                return developmentTeam;
             }
-
-            xcConfigurationList = project.getRoot().getRootObject().getReferenced().getBuildConfigurationList()
-                    .getReferenced();
-            for (PBXObjectRef<XCBuildConfiguration> ref : xcConfigurationList.getOrCreateBuildConfigurations()) {
-                XCBuildConfiguration xcBuildConfiguration = ref.getReferenced();
-                if (xcBuildConfiguration.getName().equals(Mode.RELEASE.getXcodeCompatibleName())) {
-                    final NextStep developmentTeam = xcBuildConfiguration.getOrCreateBuildSettings().get("DEVELOPMENT_TEAM");
-                    if (developmentTeam != null && ((Value)developmentTeam).value.length() != 0) {
-                        return ((Value) developmentTeam).value;
-                    }
-                }
+            developmentTeam = getDevelopmentTeam(project.getProjectConfigurations().get(Mode.RELEASE.getXcodeCompatibleName()));
+            if (developmentTeam != null) {
+                return developmentTeam;
             }
         } catch (Throwable t) {
             getProject().getLogger().log(LogLevel.ERROR, "Failed to read Xcode project file", t);
@@ -864,6 +847,18 @@ public class IpaBuild extends AbstractBaseTask {
         return null;
     }
 
+    @Nullable
+    private static String getDevelopmentTeam(@Nullable XCBuildConfiguration xcBuildConfiguration) {
+        if (xcBuildConfiguration == null) {
+            return null;
+        }
+        final NextStep developmentTeam = xcBuildConfiguration.getOrCreateBuildSettings().get("DEVELOPMENT_TEAM");
+        if (developmentTeam != null && ((Value)developmentTeam).value.length() != 0) {
+            return ((Value) developmentTeam).value;
+        }
+        return null;
+    }
+
     private void generateExportOptionsPlist() {
 
         // Generate options file
@@ -17,7 +17,6 @@ limitations under the License.
 package org.moe.gradle.tasks;
 
 import org.apache.commons.io.output.NullOutputStream;
-import org.apache.tools.ant.taskdefs.condition.Os;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
@@ -29,6 +28,7 @@ import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskContainer;
 import org.gradle.process.BaseExecSpec;
+import org.gradle.process.ExecResult;
 import org.gradle.process.JavaExecSpec;
 import org.moe.common.utils.SimCtl;
 import org.moe.gradle.AbstractMoePlugin;
@@ -37,24 +37,40 @@ import org.moe.gradle.anns.IgnoreUnused;
 import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.tasks.Launchers.DeviceLauncherBuilder.InstallMode;
+import org.moe.gradle.utils.AppBundles;
 import org.moe.gradle.utils.FileUtils;
 import org.moe.gradle.utils.JUnitTestCollector;
+import org.moe.gradle.utils.JUnitTestCollectorWriter;
 import org.moe.gradle.utils.Mode;
 import org.moe.gradle.utils.Require;
 import org.moe.gradle.utils.StreamToLogForwarder;
 import org.moe.gradle.utils.TaskUtils;
+import org.moe.gradle.utils.TestProgress;
+import org.moe.gradle.utils.TestShards;
+import org.moe.gradle.utils.TestTimingHistory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -79,6 +95,20 @@ public class Launchers {
     private static final String MOE_LAUNCHER_ARG_OPTION = "arg";
     private static final String MOE_LAUNCHER_PROXY_OPTION = "proxy";
     private static final String MOE_LAUNCHER_RAW_TEST_OUTPUT_OPTION = "raw-test-output";
+    private static final String MOE_LAUNCHER_PARALLEL_OPTION = "parallel";
+    private static final String MOE_LAUNCHER_SHARD_OPTION = "shard";
+    private static final String MOE_LAUNCHER_REGRESSION_THRESHOLD_OPTION = "regression-threshold";
+    private static final String MOE_LAUNCHER_WARM_SIMULATOR_OPTION = "warm-simulator";
+    private static final String MOE_LAUNCHER_HEADLESS_OPTION = "headless";
+    private static final String MOE_LAUNCHER_HUNG_TEST_TIMEOUT_OPTION = "hung-test-timeout";
+
+    /**
+     * Test timing history of the last runs, see {@link #getTestTimingHistoryFile(Project)}.
+     */
+    private static final String TEST_TIMING_HISTORY_FILE = "test-timings.tsv";
+    private static final int TEST_TIMING_HISTORY_RUNS = 20;
+
+    private static final String MOE_LIST_DEVICES_TASK = "moeListDevices";
 
     private static class Options {
         boolean build = true;
@@ -92,6 +122,16 @@ public class Launchers {
         final List<String> args = new ArrayList<>();
         final List<Port> proxies = new ArrayList<>();
         boolean rawTestOutput = false;
+        int parallel = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        /**
+         * Launch argument the test runner of the app reads the test classes of its shard from, sharding is disabled
+         * when null. The test runner shipped with MOE does not read such an argument.
+         */
+        String shardArgument;
+        double regressionThreshold = 20;
+        boolean warmSimulator = false;
+        boolean headless = System.getenv("CI") != null;
+        int hungTestTimeout = 120;
 
         void read(@NotNull Project project) {
             Require.nonNull(project);
@@ -215,6 +255,69 @@ public class Launchers {
                     }
                     rawTestOutput = true;
 
+                } else if (MOE_LAUNCHER_PARALLEL_OPTION.equals(key)) {
+                    final int count;
+                    try {
+                        count = value == null ? -1 : Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_PARALLEL_OPTION + "' requires a " +
+                                "positive number. Usage: '" + MOE_LAUNCHER_PARALLEL_OPTION + ":4'", e);
+                    }
+                    if (count < 1) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_PARALLEL_OPTION + "' requires a " +
+                                "positive number. Usage: '" + MOE_LAUNCHER_PARALLEL_OPTION + ":4'");
+                    }
+                    parallel = count;
+
+                } else if (MOE_LAUNCHER_SHARD_OPTION.equals(key)) {
+                    if (value == null || value.isEmpty()) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_SHARD_OPTION + "' requires the " +
+                                "launch argument the test runner of the app reads its test classes from. The test " +
+                                "runner shipped with MOE does not support sharding. Usage: '" +
+                                MOE_LAUNCHER_SHARD_OPTION + ":--test-classes'");
+                    }
+                    shardArgument = value;
+
+                } else if (MOE_LAUNCHER_REGRESSION_THRESHOLD_OPTION.equals(key)) {
+                    final double percent;
+                    try {
+                        percent = value == null ? -1 : Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_REGRESSION_THRESHOLD_OPTION + "' " +
+                                "requires a positive number. Usage: '" + MOE_LAUNCHER_REGRESSION_THRESHOLD_OPTION + ":20'", e);
+                    }
+                    if (!(percent > 0)) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_REGRESSION_THRESHOLD_OPTION + "' " +
+                                "requires a positive number. Usage: '" + MOE_LAUNCHER_REGRESSION_THRESHOLD_OPTION + ":20'");
+                    }
+                    regressionThreshold = percent;
+
+                } else if (MOE_LAUNCHER_WARM_SIMULATOR_OPTION.equals(key)) {
+                    if (value != null) {
+                        project.getLogger().warn("Ignoring value for launcher option: '" + key + "'");
+                    }
+                    warmSimulator = true;
+
+                } else if (MOE_LAUNCHER_HEADLESS_OPTION.equals(key)) {
+                    if (value != null) {
+                        project.getLogger().warn("Ignoring value for launcher option: '" + key + "'");
+                    }
+                    headless = true;
+
+                } else if (MOE_LAUNCHER_HUNG_TEST_TIMEOUT_OPTION.equals(key)) {
+                    final int seconds;
+                    try {
+                        seconds = value == null ? -1 : Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_HUNG_TEST_TIMEOUT_OPTION + "' " +
+                                "requires a positive number. Usage: '" + MOE_LAUNCHER_HUNG_TEST_TIMEOUT_OPTION + ":120'", e);
+                    }
+                    if (seconds < 1) {
+                        throw new GradleException("Launcher option '" + MOE_LAUNCHER_HUNG_TEST_TIMEOUT_OPTION + "' " +
+                                "requires a positive number. Usage: '" + MOE_LAUNCHER_HUNG_TEST_TIMEOUT_OPTION + ":120'");
+                    }
+                    hungTestTimeout = seconds;
+
                 } else {
                     project.getLogger().warn("Unknown launcher option: '" + key + "'");
                 }
@@ -272,6 +375,43 @@ public class Launchers {
         }
     }
 
+    /**
+     * Output of a launched process, either the test collector or the log. Closing it passes on the last incomplete
+     * line, Gradle doesn't close the streams of an exec spec.
+     */
+    private static class ExecOutput implements Closeable {
+        @NotNull
+        private final OutputStream out;
+
+        @NotNull
+        private final OutputStream err;
+
+        ExecOutput(@Nullable JUnitTestCollector testCollector, @Nullable String prefix) {
+            if (testCollector != null) {
+                out = new JUnitTestCollectorWriter(testCollector);
+                err = out;
+            } else {
+                out = new StreamToLogForwarder(LOG, false, prefix);
+                err = new StreamToLogForwarder(LOG, true, prefix);
+            }
+        }
+
+        void configure(@NotNull BaseExecSpec exec) {
+            exec.setStandardOutput(out);
+            exec.setErrorOutput(err);
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+                err.close();
+            } catch (IOException e) {
+                throw new GradleException(e.getMessage(), e);
+            }
+        }
+    }
+
     static class DeviceLauncherBuilder {
         // @formatter:off
         private static final String UDID_ARG            = "--udid";
@@ -479,41 +619,38 @@ public class Launchers {
         options.read(project);
 
         { // List connected devices
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            tasks.create("moeListDevices", JavaExec.class, exec -> {
+            final Task listDevices = tasks.create(MOE_LIST_DEVICES_TASK, JavaExec.class, exec -> {
                 exec.setGroup(AbstractMoePlugin.MOE);
                 exec.setDescription("Lists all connected devices.");
                 new DeviceLauncherBuilder().setList(true).build(plugin, exec);
-
-                exec.setIgnoreExitValue(true);
-                exec.setStandardOutput(baos);
-                exec.setErrorOutput(new NullOutputStream());
-
-            }).getActions().add(task -> LOG.quiet("\n" + baos.toString().trim() + "\n"));
+            });
+            // The discovery runs the launcher with the settings of this task, see listDevices()
+            listDevices.getActions().clear();
+            listDevices.getActions().add(task -> LOG.quiet("\n" + plugin.getDeviceDiscovery().getDevices() + "\n"));
+            project.getGradle().getTaskGraph().whenReady(graph -> {
+                if (graph.hasTask(listDevices)) {
+                    plugin.getDeviceDiscovery().discoverDevices();
+                }
+            });
         }
 
         { // List available simulators
-            tasks.create("moeListSimulators", DefaultTask.class, exec -> {
+            final Task listSimulators = tasks.create("moeListSimulators", DefaultTask.class, exec -> {
                 exec.setGroup(AbstractMoePlugin.MOE);
                 exec.setDescription("Lists all simulators.");
-            }).getActions().add(task -> {
-
-                final String list;
-                if (Os.isFamily(Os.FAMILY_MAC) && TaskUtils.checkExec(project, "which", "xcrun")) {
-                    LOG.info("Initializing");
-                    try {
-                        list = SimCtl.getDevices().stream()
-                                .map(d -> "- " + d)
-                                .collect(Collectors.joining("\n"));
-                    } catch (Throwable t) {
-                        throw new GradleException("Failed to get list of simulators", t);
-                    }
-                } else {
-                    list = "";
-                }
+            });
+            listSimulators.getActions().add(task -> {
+                final String list = plugin.getDeviceDiscovery().getSimulators().stream()
+                        .map(d -> "- " + d)
+                        .collect(Collectors.joining("\n"));
 
                 LOG.quiet("\nAvailable Simulators:\n" + list.trim() + "\n");
             });
+            project.getGradle().getTaskGraph().whenReady(graph -> {
+                if (graph.hasTask(listSimulators)) {
+                    plugin.getDeviceDiscovery().discoverSimulators();
+                }
+            });
         }
 
         final SourceSetContainer sourceSets = plugin.getJavaConvention().getSourceSets();
@@ -599,60 +736,6 @@ public class Launchers {
         }
     }
 
-    private static class JUnitTestCollectorWriter extends OutputStream {
-        private final JUnitTestCollector testCollector;
-
-        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-        JUnitTestCollectorWriter(@NotNull JUnitTestCollector testCollector) {
-            this.testCollector = testCollector;
-        }
-
-        @Override
-        public synchronized void write(int b) throws IOException {
-            if (b == '\n') {
-                testCollector.appendLine(buffer.toString());
-                buffer.reset();
-            } else {
-                buffer.write(b);
-            }
-        }
-
-        @Override
-        public synchronized void write(byte[] b, int off, int len) throws IOException {
-            if (b == null) {
-                throw new NullPointerException();
-            } else if ((off < 0) || (off > b.length) || (len < 0) ||
-                    ((off + len) > b.length) || ((off + len) < 0)) {
-                throw new IndexOutOfBoundsException();
-            } else if (len == 0) {
-                return;
-            }
-
-            int start = 0;
-            for (int i = start; i < len; ++i) {
-                final byte d = b[off + i];
-                if (d == '\n') {
-                    buffer.write(b, off + start, i - start);
-                    testCollector.appendLine(buffer.toString());
-                    buffer.reset();
-                    start = i + 1;
-                }
-            }
-            buffer.write(b, off + start, len - start);
-        }
-
-        @Override
-        public synchronized void close() throws IOException {
-            if (buffer.size() > 0) {
-                testCollector.appendLine(buffer.toString());
-                buffer.reset();
-                buffer.close();
-            }
-            super.close();
-        }
-    }
-
     private static void setupDevicesAndSimulators(@NotNull MoePlugin plugin, @NotNull Project project,
                                                   @NotNull List<String> devices, @NotNull List<String> simulators,
                                                   @NotNull Options options,
@@ -667,25 +750,79 @@ public class Launchers {
 
         final AtomicInteger numFailedTests = new AtomicInteger();
         final File testOutputDir = project.getBuildDir().toPath().resolve(Paths.get(MoePlugin.MOE, "reports")).toFile();
+
+        // Each target is launched in its own thread, the number of concurrently running targets is capped
+        int numTargets = 0;
+        if (options.launch || options.installOnTarget) {
+            numTargets += devices.size();
+        }
+        if (options.launch) {
+            numTargets += simulators.size();
+        }
+        final int concurrency;
+        if (options.debug != null || !options.proxies.isEmpty()) {
+            // Ports on the host can only be bound once
+            concurrency = 1;
+        } else {
+            concurrency = Math.min(options.parallel, numTargets);
+        }
+        final Map<String, Runnable> targets = new LinkedHashMap<>();
+
+        // Test classes of each target when sharding
+        final boolean sharding = test && options.shardArgument != null && options.launch && numTargets > 1;
+        final Map<String, List<String>> shards = new ConcurrentHashMap<>();
+        // Set when a target ran a test class outside of its shard, the remaining targets are not started then
+        final AtomicBoolean shardsIgnored = new AtomicBoolean();
+        final TestClassesProvider testClassesProvider = sharding ? plugin.getTaskBy(TestClassesProvider.class,
+                plugin.getJavaConvention().getSourceSets().getByName(SourceSet.TEST_SOURCE_SET_NAME), options.mode) : null;
+
         if (test) {
-            try {
-                FileUtils.deleteFileOrFolder(testOutputDir);
-            } catch (IOException e) {
-                throw new GradleException(e.getMessage(), e);
-            }
-            if (!testOutputDir.exists() && !testOutputDir.mkdirs()) {
-                throw new GradleException("Failed to create directory " + testOutputDir);
-            }
-            if (testOutputDir.exists() && !testOutputDir.isDirectory()) {
-                throw new GradleException("Expected directory at " + testOutputDir);
-            }
+            task.getActions().add(t -> {
+                // Durations of the previous run balance the shards, read them before the reports are removed
+                final Map<String, Double> durations = sharding
+                        ? TestShards.readDurations(new File(testOutputDir, "xml")) : null;
+
+                try {
+                    FileUtils.deleteFileOrFolder(testOutputDir);
+                } catch (IOException e) {
+                    throw new GradleException(e.getMessage(), e);
+                }
+                if (!testOutputDir.exists() && !testOutputDir.mkdirs()) {
+                    throw new GradleException("Failed to create directory " + testOutputDir);
+                }
+                if (testOutputDir.exists() && !testOutputDir.isDirectory()) {
+                    throw new GradleException("Expected directory at " + testOutputDir);
+                }
+
+                if (sharding) {
+                    final List<String> classes = TestShards.readClassList(testClassesProvider.getClassListFile());
+                    final List<String> names = new ArrayList<>(targets.keySet());
+                    final List<List<String>> split = TestShards.split(classes, names.size(), durations);
+                    for (int idx = 0; idx < names.size(); ++idx) {
+                        shards.put(names.get(idx), split.get(idx));
+                    }
+                    LOG.quiet("Split " + classes.size() + " test classes into " + names.size() + " shards");
+                }
+            });
         }
 
         for (String udid : devices) {
             if (!options.launch && !options.installOnTarget) {
                 continue;
             }
-            task.getActions().add(t -> {
+            final String name = udid == null ? "unknown-device" : udid;
+            final String prefix = concurrency > 1 ? "[" + name + "] " : null;
+            addTarget(targets, name, () -> {
+                final List<String> shard = shards.get(name);
+                if (shard != null && shard.isEmpty()) {
+                    LOG.quiet("Skipping " + name + ", its test shard is empty");
+                    return;
+                }
+                if (shard != null && shardsIgnored.get()) {
+                    LOG.quiet("Skipping " + name + ", the test runner of the app ignores the test shards");
+                    return;
+                }
+
                 // Get proper Xcode settings
                 final Map<String, String> settings;
                 if (xcodeBuildDev.getDidWork()) {
@@ -703,48 +840,82 @@ public class Launchers {
 
                 final JUnitTestCollector testCollector;
                 if (test && !options.rawTestOutput && options.launch) {
-                    testCollector = new JUnitTestCollector();
+                    testCollector = createTestCollector(project, name, testOutputDir, options);
                 } else {
                     testCollector = null;
                 }
+                if (testCollector != null && shard != null) {
+                    testCollector.setShard(shard, suite -> shardsIgnored.set(true));
+                }
+
+                try {
+                    try (ExecOutput output = new ExecOutput(testCollector, prefix)) {
+                        TaskUtils.javaexec(project, exec -> {
+                            // Create device launcher
+                            final DeviceLauncherBuilder builder = new DeviceLauncherBuilder().setWaitForDevice(options.waitForDevice);
+                            if (udid != null) {
+                                builder.setUDID(udid);
+                            }
+                            if (options.debug != null) {
+                                builder.setDebug(options.debug.local, options.debug.remote);
+                            }
+                            if (options.installOnTarget && !options.launch) {
+                                builder.setInstallMode(InstallMode.UPGRADE_ONLY);
+                            } else if (!options.installOnTarget && options.launch) {
+                                builder.setInstallMode(InstallMode.RUN_ONLY);
+                            }
+                            options.envs.forEach(builder::putEnvVar);
+                            options.vmargs.forEach(builder::addLaunchArgs);
+                            builder.addLaunchArgs("-args");
+                            options.args.forEach(builder::addLaunchArgs);
+                            if (shard != null) {
+                                builder.addLaunchArgs(options.shardArgument + "=" + String.join(",", shard));
+                            }
+                            options.proxies.forEach(p -> builder.addProxyPort(p.local, p.remote));
+                            builder.setAppPath(appPath)
+                                    .build(plugin, exec);
 
-                TaskUtils.javaexec(project, exec -> {
-                    // Create device launcher
-                    final DeviceLauncherBuilder builder = new DeviceLauncherBuilder().setWaitForDevice(options.waitForDevice);
-                    if (udid != null) {
-                        builder.setUDID(udid);
-                    }
-                    if (options.debug != null) {
-                        builder.setDebug(options.debug.local, options.debug.remote);
-                    }
-                    if (options.installOnTarget && !options.launch) {
-                        builder.setInstallMode(InstallMode.UPGRADE_ONLY);
-                    } else if (!options.installOnTarget && options.launch) {
-                        builder.setInstallMode(InstallMode.RUN_ONLY);
-                    }
-                    options.envs.forEach(builder::putEnvVar);
-                    options.vmargs.forEach(builder::addLaunchArgs);
-                    builder.addLaunchArgs("-args");
-                    options.args.forEach(builder::addLaunchArgs);
-                    options.proxies.forEach(p -> builder.addProxyPort(p.local, p.remote));
-                    builder.setAppPath(appPath)
-                            .build(plugin, exec);
-
-                    execConfigOutput(exec, testCollector);
-                });
-
-                if (testCollector != null) {
-                    numFailedTests.getAndAdd(testCollector.getNumFailures() + testCollector.getNumErrors());
-                    writeJUnitReport(udid == null ? "unknown-device" : udid, testCollector, testOutputDir);
+                            output.configure(exec);
+                        });
+                    }
+                    checkShard(name, testCollector, options);
+                } catch (GradleException ex) {
+                    checkShard(name, testCollector, options);
+                    throw ex;
+                } finally {
+                    if (testCollector != null) {
+                        closeTestCollector(testCollector);
+                        numFailedTests.getAndAdd(testCollector.getNumFailures() + testCollector.getNumErrors());
+                    }
                 }
             });
         }
 
+        if (options.launch && !simulators.isEmpty()) {
+            // Look up the simulators while the app is being built
+            project.getGradle().getTaskGraph().whenReady(graph -> {
+                if (graph.hasTask(task)) {
+                    plugin.getDeviceDiscovery().discoverSimulators();
+                }
+            });
+        }
         for (String udid : simulators) {
             if (!options.launch) {
                 continue;
             }
-            task.getActions().add(t -> {
+            final String name = udid == null ? "unknown-simulator" : udid;
+            final String prefix = concurrency > 1 ? "[" + name + "] " : null;
+            addTarget(targets, name, () -> {
+                final List<String> shard = shards.get(name);
+                if (shard != null && shard.isEmpty()) {
+                    LOG.quiet("Skipping " + name + ", its test shard is empty");
+                    return;
+                }
+                if (shard != null && shardsIgnored.get()) {
+                    LOG.quiet("Skipping " + name + ", the test runner of the app ignores the test shards");
+                    return;
+                }
+
                 // Get proper Xcode settings
                 final Map<String, String> settings;
                 if (xcodeBuildSim.getDidWork()) {
@@ -765,15 +936,22 @@ public class Launchers {
 
                 final JUnitTestCollector testCollector;
                 if (test && !options.rawTestOutput) {
-                    testCollector = new JUnitTestCollector();
+                    testCollector = createTestCollector(project, name, testOutputDir, options);
                 } else {
                     testCollector = null;
                 }
+                if (testCollector != null && shard != null) {
+                    testCollector.setShard(shard, suite -> {
+                        shardsIgnored.set(true);
+                        // Stop the app instead of letting it run the whole suite
+                        TaskUtils.checkExec(project, "xcrun", "simctl", "terminate", udid, bundleIdentifier);
+                    });
+                }
 
                 try {
                     SimCtl.Device selectedSim = null;
                     try {
-                        List<SimCtl.Device> sims = SimCtl.getDevices();
+                        List<SimCtl.Device> sims = plugin.getDeviceDiscovery().getSimulators();
                         for (SimCtl.Device s : sims) {
                             if (Objects.equals(udid, s.udid)) {
                                 selectedSim = s;
@@ -789,63 +967,106 @@ public class Launchers {
 
                     if ("shutdown".equalsIgnoreCase(selectedSim.state)) {
                         LOG.info("Booting simulator {}", selectedSim.udid);
-                        TaskUtils.exec(project, exec -> {
-                            exec.setExecutable("xcrun");
-                            exec.args("simctl", "boot", udid);
+                        try (ExecOutput output = new ExecOutput(testCollector, prefix)) {
+                            TaskUtils.exec(project, exec -> {
+                                exec.setExecutable("xcrun");
+                                exec.args("simctl", "boot", udid);
 
-                            execConfigOutput(exec, testCollector);
-                        });
+                                output.configure(exec);
+                            });
+                        }
+                        plugin.getDeviceDiscovery().invalidateSimulators();
                     }
                     // Bring simulator window to front
-                    TaskUtils.exec(project, exec -> {
-                        exec.setExecutable("open");
-                        exec.args("-a", "Simulator");
-
-                        execConfigOutput(exec, testCollector);
-                    });
+                    if (!options.headless) {
+                        try (ExecOutput output = new ExecOutput(testCollector, prefix)) {
+                            TaskUtils.exec(project, exec -> {
+                                exec.setExecutable("open");
+                                exec.args("-a", "Simulator");
+
+                                output.configure(exec);
+                            });
+                        }
+                    }
 
                     // Install app
-                    LOG.info("Installing app {} to simulator {}", appPath, selectedSim.udid);
-                    TaskUtils.exec(project, exec -> {
-                        exec.setExecutable("xcrun");
-                        exec.args("simctl", "install", udid, appPath);
-
-                        execConfigOutput(exec, testCollector);
-                    });
+                    if (options.warmSimulator && isInstalledOnSimulator(project, udid, bundleIdentifier, appPath)) {
+                        LOG.info("App {} is up-to-date on simulator {}, skipping install", appPath, selectedSim.udid);
+                    } else {
+                        LOG.info("Installing app {} to simulator {}", appPath, selectedSim.udid);
+                        try (ExecOutput output = new ExecOutput(testCollector, prefix)) {
+                            TaskUtils.exec(project, exec -> {
+                                exec.setExecutable("xcrun");
+                                exec.args("simctl", "install", udid, appPath);
+
+                                output.configure(exec);
+                            });
+                        }
+                    }
 
                     // Launch app
                     LOG.info("Launching app {} on simulator {}", appPath, selectedSim.udid);
-                    TaskUtils.exec(project, exec -> {
-                        exec.setExecutable("xcrun");
-                        exec.args("simctl", "launch", "--console-pty", udid, bundleIdentifier);
+                    try (ExecOutput output = new ExecOutput(testCollector, prefix)) {
+                        TaskUtils.exec(project, exec -> {
+                            exec.setExecutable("xcrun");
+                            exec.args("simctl", "launch", "--console-pty", udid, bundleIdentifier);
 
-                        if (options.debug != null) {
-                            exec.args("-Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=" + options.debug.local);
-                        }
+                            if (options.debug != null) {
+                                exec.args("-Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=" + options.debug.local);
+                            }
 
-                        exec.args(options.vmargs);
-                        exec.args("-args");
-                        exec.args(options.args);
+                            exec.args(options.vmargs);
+                            exec.args("-args");
+                            exec.args(options.args);
+                            if (shard != null) {
+                                exec.args(options.shardArgument + "=" + String.join(",", shard));
+                            }
 
-                        // https://stackoverflow.com/a/53604237
-                        Map<String, String> envs = new HashMap<>();
-                        for (Map.Entry<String, String> entry : options.envs.entrySet()) {
-                            envs.put("SIMCTL_CHILD_" + entry.getKey(), entry.getValue());
-                        }
-                        envs.put("SIMCTL_CHILD_NSUnbufferedIO", "YES");
-                        exec.environment(envs);
+                            // https://stackoverflow.com/a/53604237
+                            Map<String, String> envs = new HashMap<>();
+                            for (Map.Entry<String, String> entry : options.envs.entrySet()) {
+                                envs.put("SIMCTL_CHILD_" + entry.getKey(), entry.getValue());
+                            }
+                            envs.put("SIMCTL_CHILD_NSUnbufferedIO", "YES");
+                            exec.environment(envs);
 
-                        execConfigOutput(exec, testCollector);
-                    });
+                            output.configure(exec);
+                        });
+                    }
+                    checkShard(name, testCollector, options);
+                } catch (GradleException ex) {
+                    checkShard(name, testCollector, options);
+                    throw ex;
                 } finally {
                     if (testCollector != null) {
+                        closeTestCollector(testCollector);
                         numFailedTests.getAndAdd(testCollector.getNumFailures() + testCollector.getNumErrors());
-                        writeJUnitReport(udid == null ? "unknown-simulator" : udid, testCollector, testOutputDir);
                     }
                 }
             });
         }
 
+        if (!targets.isEmpty()) {
+            task.getActions().add(t -> runTargets(targets, concurrency));
+        }
+
+        if (sharding) {
+            task.getActions().add(t -> {
+                final File xmlDir = new File(testOutputDir, "xml");
+                final List<File> reports = targets.keySet().stream()
+                        .map(name -> new File(xmlDir, name + ".xml"))
+                        .filter(File::exists)
+                        .collect(Collectors.toList());
+                // Next to the per-target reports, tools collecting xml/*.xml would count every test twice
+                TestShards.merge(reports, new File(testOutputDir, "merged.xml"));
+            });
+        }
+
+        if (test && !options.rawTestOutput && options.launch) {
+            task.getActions().add(t -> recordTestTimings(project, testOutputDir, targets.keySet(),
+                    options.regressionThreshold));
+        }
+
         if (test) {
             task.getActions().add(t -> {
                 if (numFailedTests.get() > 0) {
@@ -855,47 +1076,223 @@ public class Launchers {
         }
     }
 
-    private static void execConfigOutput(@NotNull BaseExecSpec exec, @Nullable JUnitTestCollector testCollector) {
-        if (testCollector != null) {
-            final JUnitTestCollectorWriter writer = new JUnitTestCollectorWriter(testCollector);
-            exec.setStandardOutput(writer);
-            exec.setErrorOutput(writer);
-        } else {
-            exec.setStandardOutput(new StreamToLogForwarder(LOG, false));
-            exec.setErrorOutput(new StreamToLogForwarder(LOG, true));
+    /**
+     * Fails if the test runner of the app ran a test class outside of the target's shard.
+     */
+    private static void checkShard(@NotNull String name, @Nullable JUnitTestCollector testCollector,
+                                   @NotNull Options options) {
+        final String suite = testCollector == null ? null : testCollector.getUnexpectedSuite();
+        if (suite != null) {
+            throw new GradleException(name + " ran " + suite + ", which is not in its test shard. The test runner of"
+                    + " the app ignores the '" + options.shardArgument + "' argument and does not support the '"
+                    + MOE_LAUNCHER_SHARD_OPTION + "' option");
+        }
+    }
+
+    /**
+     * Adds a target, the names are the UDIDs and each device or simulator is only launched once. Repeated UDIDs are
+     * reported and skipped, this runs during configuration where failing would break unrelated tasks.
+     */
+    private static void addTarget(@NotNull Map<String, Runnable> targets, @NotNull String name,
+                                  @NotNull Runnable target) {
+        if (targets.putIfAbsent(name, target) != null) {
+            LOG.warn("'" + name + "' is specified more than once in the devices and simulators, only the first"
+                    + " entry is used");
         }
     }
 
-    private static void writeJUnitReport(@NotNull String udid, @NotNull JUnitTestCollector testCollector,
-                                         @NotNull File out) {
+    /**
+     * Runs the targets on a pool of the specified size, or in order on the calling thread if it is 1. When running in
+     * parallel, all targets are completed and their failures are reported together.
+     */
+    private static void runTargets(@NotNull Map<String, Runnable> targets, int concurrency) {
+        if (concurrency <= 1) {
+            targets.values().forEach(Runnable::run);
+            return;
+        }
+
+        final Map<String, Throwable> failures = new LinkedHashMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            final Map<String, Future<?>> futures = new LinkedHashMap<>();
+            targets.forEach((name, target) -> futures.put(name, executor.submit(target)));
+            for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    failures.put(entry.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException(e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failures.isEmpty()) {
+            return;
+        }
+        final Throwable first = failures.values().iterator().next();
+        if (failures.size() == 1 && first instanceof RuntimeException) {
+            throw (RuntimeException) first;
+        }
+        throw new GradleException("Failed on " + failures.size() + " targets:\n" + failures.entrySet().stream()
+                .map(e -> "  " + e.getKey() + ": " + e.getValue().getMessage())
+                .collect(Collectors.joining("\n")), first);
+    }
+
+    private static JUnitTestCollector createTestCollector(@NotNull Project project, @NotNull String udid,
+                                                          @NotNull File out, @NotNull Options options) {
+        Require.nonNull(project);
         Require.nonNull(udid);
-        Require.nonNull(testCollector);
         Require.nonNull(out);
+        Require.nonNull(options);
 
         final File out_xml = prepareOutputSubdir(out, "xml");
         final File out_html = prepareOutputSubdir(out, "html");
         final File out_txt = prepareOutputSubdir(out, "txt");
+        final File out_timings = prepareOutputSubdir(out, "timings");
 
-        // Try to write xml
+        final JUnitTestCollector testCollector = new JUnitTestCollector(udid, new File(out_txt, udid + ".txt"),
+                new File(out_xml, udid + ".xml"), new File(out_html, udid + ".html"), new File(out_timings, udid + ".tsv"));
+
+        // Report the progress with the ETA from the timing history
+        Map<String, Double> averages;
         try {
-            final File file = new File(out_xml, udid + ".xml");
-            FileUtils.write(file, testCollector.getXMLReport());
+            averages = new TestTimingHistory(getTestTimingHistoryFile(project),
+                    TEST_TIMING_HISTORY_RUNS).getAverages(udid);
         } catch (GradleException ex) {
-            LOG.error(ex.getMessage(), ex.getCause());
+            LOG.info("Failed to read the test timing history", ex);
+            averages = Collections.emptyMap();
+        }
+        testCollector.setProgress(new TestProgress(project, udid, averages,
+                TimeUnit.SECONDS.toMillis(options.hungTestTimeout)));
+        return testCollector;
+    }
+
+    /**
+     * Returns the output of the device launcher's device list.
+     */
+    @NotNull
+    static String listDevices(@NotNull MoePlugin plugin) {
+        Require.nonNull(plugin);
+
+        final Task task = plugin.getProject().getTasks().findByName(MOE_LIST_DEVICES_TASK);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        plugin.getProject().javaexec(exec -> {
+            if (task instanceof JavaExec) {
+                // Build scripts may configure the launcher on the listing task
+                final JavaExec listDevices = (JavaExec) task;
+                listDevices.copyTo(exec);
+                exec.setClasspath(listDevices.getClasspath());
+                exec.setMain(listDevices.getMain());
+                exec.setArgs(listDevices.getArgs());
+            } else {
+                new DeviceLauncherBuilder().setList(true).build(plugin, exec);
+            }
+
+            exec.setIgnoreExitValue(true);
+            exec.setStandardOutput(baos);
+            exec.setErrorOutput(new NullOutputStream());
+        });
+        return baos.toString().trim();
+    }
+
+    /**
+     * Returns true if the app installed on the simulator has the same contents as the built app.
+     */
+    private static boolean isInstalledOnSimulator(@NotNull Project project, @NotNull String udid,
+                                                  @NotNull String bundleIdentifier, @NotNull File appPath) {
+        Require.nonNull(project);
+        Require.nonNull(udid);
+        Require.nonNull(bundleIdentifier);
+        Require.nonNull(appPath);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ExecResult result = project.exec(exec -> {
+            exec.setExecutable("xcrun");
+            exec.args("simctl", "get_app_container", udid, bundleIdentifier, "app");
+            exec.setIgnoreExitValue(true);
+            exec.setStandardOutput(baos);
+            exec.setErrorOutput(new NullOutputStream());
+        });
+        if (result.getExitValue() != 0) {
+            // Not installed
+            return false;
         }
 
-        // Try to write html
+        final File installed = new File(baos.toString().trim());
         try {
-            final File file = new File(out_html, udid + ".html");
-            FileUtils.write(file, testCollector.getHTMLReport(udid));
+            return AppBundles.matches(appPath, installed);
         } catch (GradleException ex) {
-            LOG.error(ex.getMessage(), ex.getCause());
+            LOG.info("Failed to compare " + appPath + " with " + installed, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the test timing history file of the project. It is kept in the project cache directory of the build,
+     * the root project's .gradle directory by default, under the path of the project. It survives clean builds and
+     * subprojects don't get their own .gradle directory.
+     */
+    @NotNull
+    private static File getTestTimingHistoryFile(@NotNull Project project) {
+        File cacheDir = project.getGradle().getStartParameter().getProjectCacheDir();
+        if (cacheDir == null) {
+            cacheDir = new File(project.getRootDir(), ".gradle");
+        }
+        File dir = new File(cacheDir, MoePlugin.MOE);
+        for (String name : project.getPath().split(Pattern.quote(Project.PATH_SEPARATOR))) {
+            if (!name.isEmpty()) {
+                dir = new File(dir, name);
+            }
+        }
+        return new File(dir, TEST_TIMING_HISTORY_FILE);
+    }
+
+    private static void recordTestTimings(@NotNull Project project, @NotNull File out, @NotNull Collection<String> targets,
+                                          double regressionThreshold) {
+        Require.nonNull(project);
+        Require.nonNull(out);
+        Require.nonNull(targets);
+
+        final File timingsDir = new File(out, "timings");
+        final List<TestTimingHistory.Timing> timings = new ArrayList<>();
+        for (String name : targets) {
+            final File file = new File(timingsDir, name + ".tsv");
+            if (file.exists()) {
+                timings.addAll(TestTimingHistory.readTimings(name, file));
+            }
+        }
+        if (timings.isEmpty()) {
+            return;
         }
 
-        // Try to write txt
         try {
-            final File file = new File(out_txt, udid + ".txt");
-            FileUtils.write(file, testCollector.getCompleteInput());
+            final TestTimingHistory history = new TestTimingHistory(
+                    getTestTimingHistoryFile(project), TEST_TIMING_HISTORY_RUNS);
+            final Map<TestTimingHistory.Timing, Double> regressions = history.getRegressions(timings, regressionThreshold);
+            history.add(System.currentTimeMillis(), timings);
+
+            final File report = new File(timingsDir, "report.txt");
+            FileUtils.write(report, TestTimingHistory.createReport(timings, regressions, regressionThreshold));
+            if (regressions.isEmpty()) {
+                LOG.info("Test timing report: " + report);
+            } else {
+                LOG.warn(regressions.size() + " tests are slower than their average by more than " +
+                        regressionThreshold + "%, see " + report);
+            }
+        } catch (GradleException ex) {
+            LOG.warn("Failed to update the test timing history", ex);
+        }
+    }
+
+    private static void closeTestCollector(@NotNull JUnitTestCollector testCollector) {
+        Require.nonNull(testCollector);
+
+        try {
+            testCollector.close();
         } catch (GradleException ex) {
             LOG.error(ex.getMessage(), ex.getCause());
         }
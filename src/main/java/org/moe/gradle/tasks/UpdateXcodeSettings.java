@@ -45,6 +45,7 @@ public class UpdateXcodeSettings extends AbstractBaseTask {
             XcodeEditor xcodeEditor = new XcodeEditor(xcodeFile);
             xcodeEditor.update(settings);
             xcodeEditor.getProjectFile().save();
+            getMoePlugin().getXcodeProjectCache().invalidate(xcodeFile);
         } catch (ProjectException e) {
             throw new GradleException("Could not open Xcode project for updating settings", e);
         } catch (IOException e) {
@@ -20,6 +20,10 @@ import com.dd.plist.NSDictionary;
 import com.dd.plist.NSNumber;
 import com.dd.plist.NSObject;
 import com.dd.plist.PropertyListParser;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.IOUtils;
 import org.gradle.api.GradleException;
 import org.gradle.api.logging.LogLevel;
 import org.gradle.api.logging.Logger;
@@ -33,12 +37,8 @@ import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.compile.JavaCompile;
 import org.moe.common.developer.ProvisioningProfile;
 import org.moe.document.pbxproj.PBXNativeTarget;
-import org.moe.document.pbxproj.PBXObject;
 import org.moe.document.pbxproj.PBXObjectRef;
-import org.moe.document.pbxproj.ProjectFile;
 import org.moe.document.pbxproj.XCBuildConfiguration;
-import org.moe.document.pbxproj.XCConfigurationList;
-import org.moe.document.pbxproj.nextstep.Array;
 import org.moe.document.pbxproj.nextstep.NextStep;
 import org.moe.document.pbxproj.nextstep.Value;
 import org.moe.gradle.MoeExtension;
@@ -49,10 +49,12 @@ import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
 import org.moe.gradle.remote.Server;
 import org.moe.gradle.remote.ServerChannelException;
+import org.moe.gradle.remote.ServerPool;
 import org.moe.gradle.remote.file.FileList;
 import org.moe.gradle.utils.Arch;
 import org.moe.gradle.utils.Mode;
 import org.moe.gradle.utils.Require;
+import org.moe.gradle.utils.XcodeProjectCache;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -72,9 +74,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -82,6 +84,8 @@ public class XcodeBuild extends AbstractBaseTask {
 
     private static final Logger LOG = Logging.getLogger(XcodeBuild.class);
 
+    private static final String BUILD_SETTINGS_MARKER = "@@MOE-BUILD-SETTINGS@@";
+
     private static final String CONVENTION_TARGET = "target";
     private static final String CONVENTION_SCHEME = "scheme";
     private static final String CONVENTION_CONFIGURATION = "configuration";
@@ -395,76 +399,18 @@ public class XcodeBuild extends AbstractBaseTask {
             generateSchemeIfNeeded(scheme);
         }
 
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
 
         final MoeExtension ext = getMoePlugin().getExtension();
 
         if (remoteServer != null) {
             remoteServer.unlockRemoteKeychain();
 
-            // Upload project
+            // Upload project, only the files changed since the background upload are transferred
             File projectDir = getProject().getParent() != null ? getProject().getParent().getProjectDir() : getProject().getProjectDir();
-            final FileList list = new FileList(projectDir, remoteServer.getBuildDir());
-
-            // Collect files we don't want to upload
-            final Set<File> excludes = new HashSet<>();
-
-            // Exclude some special paths
-            excludes.add(new File(getProject().getProjectDir(), "moe.remotebuild.properties"));
-            excludes.add(new File(getProject().getBuildDir(), "tmp"));
-            excludes.add(new File(getProject().getRootDir(), ".gradle"));
-            excludes.add(new File(getProject().getRootDir(), ".idea"));
-
-            // Exclude files from dependencies
-            for (XcodeProvider xcodeProvider : getXcodeProviderTaskDeps()) {
-                excludes.add(xcodeProvider.getLogFile());
-                excludes.add(resolvePathInBuildDir(xcodeProvider.getOutRoot()));
-
-                final Dex2Oat dex2OatTask = xcodeProvider.getDex2OatTaskDep();
-                excludes.add(dex2OatTask.getLogFile());
-
-                final Dex dexTask = dex2OatTask.getDexTaskDep();
-                excludes.add(dexTask.getDestDir());
-                excludes.add(dexTask.getLogFile());
-
-                final ClassValidate classValidateTask = dexTask.getClassValidateTaskDep();
-                excludes.add(classValidateTask.getOutputDir());
-                excludes.add(classValidateTask.getLogFile());
-
-                final Desugar desugarTask = classValidateTask.getDesugarTaskDep();
-                excludes.add(desugarTask.getAppOutJar());
-                excludes.add(desugarTask.getRuntimeOutJar());
-                excludes.add(desugarTask.getComposedCfgFile());
-                excludes.add(desugarTask.getLogFile());
-
-                final ProGuard proGuardTask = desugarTask.getProGuardTaskDep();
-                excludes.add(proGuardTask.getOutJar());
-                excludes.add(proGuardTask.getComposedCfgFile());
-                excludes.add(proGuardTask.getLogFile());
-
-                final JavaCompile classesTask = proGuardTask.getJavaCompileTaskDep();
-                if (classesTask != null) {
-                    excludes.add(classesTask.getDestinationDir());
-                }
-
-                final StartupProvider startupProviderTask = xcodeProvider.getStartupProviderTaskDep();
-                excludes.add(startupProviderTask.getLogFile());
-            }
-
-            // Exclude files from "self"
-            excludes.add(getLogFile());
-            excludes.add(new File(getXcodeBuildRoot()));
-            excludes.add(getLocalSDKLink().toFile());
-
-            List<File> excluded = ext.remoteBuildOptions.getExcludes();
-            if (excluded != null) {
-                excludes.addAll(excluded);
-            }
-
-            // TODO: exclude IPA
-
-            list.add(getProject().getProjectDir(), excludes);
-            remoteServer.upload("project files", list);
+            final FileList projectFileList = createProjectFileList(remoteServer, false);
+            remoteServer.upload("project files", projectFileList);
+            remoteServer.removeDeletedFiles(projectFileList);
 
             List<File> resources = ext.remoteBuildOptions.getResources();
 
@@ -481,9 +427,18 @@ public class XcodeBuild extends AbstractBaseTask {
                 throw new GradleException("Unsupported configuration", e);
             }
 
+            // The build settings are queried alongside the build and printed after a marker, saving a second
+            // xcodebuild launch and round-trip
+            final String args = calculateArgs().stream().collect(Collectors.joining(" "));
+            final String buildOutput;
             try {
-                remoteServer.exec("xcodebuild", "xcrun --find xcodebuild && " +
-                        "xcrun xcodebuild " + calculateArgs().stream().collect(Collectors.joining(" ")));
+                buildOutput = remoteServer.exec("xcodebuild", "" +
+                        "xcrun --find xcodebuild || exit 1; " +
+                        "S=$(mktemp) || exit 1; " +
+                        "xcrun xcodebuild -showBuildSettings -json " + args + " > \"$S\" 2> /dev/null & P=$!; " +
+                        "xcrun xcodebuild " + args + "; R=$?; " +
+                        "if [ $R -ne 0 ]; then kill $P 2> /dev/null; rm -f \"$S\"; exit $R; fi; " +
+                        "wait $P; echo; echo '" + BUILD_SETTINGS_MARKER + "'; cat \"$S\"; rm -f \"$S\"");
             } catch (GradleException e) {
                 if (e.getCause() instanceof ServerChannelException) {
                     String output = ((ServerChannelException) e.getCause()).getOutput();
@@ -494,9 +449,15 @@ public class XcodeBuild extends AbstractBaseTask {
                 throw e;
             }
 
-            final String xcodeBuildSettingsRaw = remoteServer.exec("xcodebuild build settings", "" +
-                    "xcrun xcodebuild -showBuildSettings " + calculateArgs().stream().collect(Collectors.joining(" ")));
-            Map<String, String> xcodeBuildSettingsRemote = processXcodeBuildSettings(xcodeBuildSettingsRaw);
+            final int marker = buildOutput.lastIndexOf(BUILD_SETTINGS_MARKER);
+            Map<String, String> xcodeBuildSettingsRemote = marker == -1 ? null :
+                    processXcodeBuildSettingsJson(buildOutput.substring(marker + BUILD_SETTINGS_MARKER.length()));
+            if (xcodeBuildSettingsRemote == null) {
+                // Xcode versions without JSON support
+                final String xcodeBuildSettingsRaw = remoteServer.exec("xcodebuild build settings", "" +
+                        "xcrun xcodebuild -showBuildSettings " + args);
+                xcodeBuildSettingsRemote = processXcodeBuildSettings(xcodeBuildSettingsRaw);
+            }
             Map<String, String> xcodeBuildSettings = new HashMap<>(xcodeBuildSettingsRemote);
             boolean isSingle = getProject().getParent() == null;
             String suffix = isSingle ? "" : "/" + getProject().getName();
@@ -519,31 +480,56 @@ public class XcodeBuild extends AbstractBaseTask {
                 }).collect(Collectors.joining(File.pathSeparator)));
             }
 
-            remoteServer.downloadDirectory("products", remoteServer.getRemotePath(configurationBuildDirRel), getConfigurationBuildDir().getParentFile());
+            // Only changed files are transferred, debug symbols can be skipped entirely for debug iterations
+            final List<String> excludedProducts = new ArrayList<>();
+            if (ext.remoteBuildOptions.isSkipDebugSymbols() && getMode() == Mode.DEBUG) {
+                excludedProducts.add("*.dSYM");
+            }
+            remoteServer.downloadDirectory("products", remoteServer.getRemotePath(configurationBuildDirRel),
+                    getConfigurationBuildDir().getParentFile(), excludedProducts);
 
             this.xcodeBuildSettings = xcodeBuildSettings;
 
         } else {
             linkSDK();
 
-            exec(spec -> {
-                // Set executable
-                spec.setExecutable("xcrun");
-                spec.args("xcodebuild");
-
-                // Set options
-                spec.args(calculateArgs());
-            });
+            final List<String> args = calculateArgs();
+            final Process buildSettingsProcess = startXcodeBuildSettingsQuery(args);
+            final CompletableFuture<Map<String, String>> buildSettingsFuture = buildSettingsProcess == null
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.supplyAsync(() -> readXcodeBuildSettingsJson(buildSettingsProcess));
 
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            exec(spec -> {
-                spec.setExecutable("xcrun");
-                spec.args("xcodebuild", "-showBuildSettings");
-                spec.args(calculateArgs());
+            boolean built = false;
+            try {
+                exec(spec -> {
+                    // Set executable
+                    spec.setExecutable("xcrun");
+                    spec.args("xcodebuild");
+
+                    // Set options
+                    spec.args(args);
+                });
+                built = true;
+            } finally {
+                // Don't leave the query running after a failed build
+                if (!built && buildSettingsProcess != null) {
+                    buildSettingsProcess.destroy();
+                }
+            }
 
-                spec.setStandardOutput(baos);
-            });
-            xcodeBuildSettings = processXcodeBuildSettings(baos.toString());
+            xcodeBuildSettings = buildSettingsFuture.join();
+            if (xcodeBuildSettings == null) {
+                // Xcode versions without JSON support
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                exec(spec -> {
+                    spec.setExecutable("xcrun");
+                    spec.args("xcodebuild", "-showBuildSettings");
+                    spec.args(args);
+
+                    spec.setStandardOutput(baos);
+                });
+                xcodeBuildSettings = processXcodeBuildSettings(baos.toString());
+            }
         }
 
         try {
@@ -555,6 +541,72 @@ public class XcodeBuild extends AbstractBaseTask {
         }
     }
 
+    /**
+     * Starts {@code xcodebuild -showBuildSettings -json}, returns null if it cannot be started.
+     */
+    @Nullable
+    private Process startXcodeBuildSettingsQuery(@NotNull List<String> args) {
+        final List<String> command = new ArrayList<>(Arrays.asList("xcrun", "xcodebuild", "-showBuildSettings", "-json"));
+        command.addAll(args);
+        try {
+            return new ProcessBuilder(command)
+                    .directory(getProject().getProjectDir())
+                    .redirectError(ProcessBuilder.Redirect.appendTo(getLogFile()))
+                    .start();
+        } catch (IOException e) {
+            LOG.info("Failed to query build settings: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the output of a process started by {@link #startXcodeBuildSettingsQuery(List)}, returns null if it fails
+     * or its output cannot be parsed.
+     */
+    @Nullable
+    private static Map<String, String> readXcodeBuildSettingsJson(@NotNull Process process) {
+        try {
+            final String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+            if (process.waitFor() != 0) {
+                return null;
+            }
+            return processXcodeBuildSettingsJson(output);
+        } catch (IOException | InterruptedException e) {
+            LOG.info("Failed to query build settings: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Merges the build settings of all targets from the output of {@code xcodebuild -showBuildSettings -json}, the
+     * same way {@link #processXcodeBuildSettings(String)} does for the text output. Returns null if the output is not
+     * valid.
+     */
+    @Nullable
+    private static Map<String, String> processXcodeBuildSettingsJson(@NotNull String output) {
+        final JsonElement root;
+        try {
+            root = new JsonParser().parse(output.trim());
+        } catch (JsonParseException e) {
+            return null;
+        }
+        if (!root.isJsonArray() || root.getAsJsonArray().size() == 0) {
+            return null;
+        }
+        final Map<String, String> xcodeBuildSettings = new HashMap<>();
+        for (JsonElement target : root.getAsJsonArray()) {
+            if (!target.isJsonObject() || !target.getAsJsonObject().has("buildSettings")) {
+                return null;
+            }
+            for (Map.Entry<String, JsonElement> entry : target.getAsJsonObject().getAsJsonObject("buildSettings").entrySet()) {
+                if (entry.getValue().isJsonPrimitive()) {
+                    xcodeBuildSettings.put(entry.getKey(), entry.getValue().getAsString());
+                }
+            }
+        }
+        return xcodeBuildSettings;
+    }
+
     private Map<String, String> processXcodeBuildSettings(String output) {
         final List<String> buildSettingsLines = Arrays.asList(output.trim().split("\\n"));
         final Map<String, String> xcodeBuildSettings = new HashMap<>();
@@ -622,7 +674,7 @@ public class XcodeBuild extends AbstractBaseTask {
         }
 
         final List<String> args = new ArrayList<>();
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
 
         args.add("-configuration");
         args.add(getConfiguration());
@@ -760,6 +812,11 @@ public class XcodeBuild extends AbstractBaseTask {
         });
         xcodeProviderTaskDeps = xcodeProviderTasks;
 
+        final ServerPool remoteServerPool = getMoePlugin().getRemoteServerPool();
+        if (remoteServerPool != null) {
+            remoteServerPool.getMoeRemoteServerSetupTask().doLast(t -> startBackgroundUpload());
+        }
+
         // Update convention mapping
         addConvention(CONVENTION_TARGET, () -> {
             String targetName;
@@ -815,41 +872,21 @@ public class XcodeBuild extends AbstractBaseTask {
         try {
             // Open Xcode project
             final File xcodeproj = Require.nonNull(getXcodeProjectFile());
-            final ProjectFile project = new ProjectFile(xcodeproj);
+            final XcodeProjectCache.ParsedProject project = getMoePlugin().getXcodeProjectCache().get(xcodeproj);
             final String target = Require.nonNull(getTarget());
 
             // Search for target with name
-            final java.util.Optional<Entry<PBXObjectRef<? extends PBXObject>, PBXObject>> optional = project.getRoot()
-                    .getObjects().entrySet().stream()
-                    .filter(field -> field.getValue() instanceof PBXNativeTarget && ((PBXNativeTarget)field.getKey()
-                            .getReferenced()).getName().equals(target)).findFirst();
-            Require.TRUE(optional.isPresent(),
+            final Map<String, XCBuildConfiguration> targetConfigurations = project.getTargetConfigurations(target);
+            Require.nonNull(targetConfigurations,
                     "Target with name '" + target + "' doesn't exist in Xcode project at " + xcodeproj
                             .getAbsolutePath());
-            PBXNativeTarget nTarget = (PBXNativeTarget)optional.get().getValue();
 
             // Search for build configuration with name
-            XCConfigurationList xcConfigurationList = nTarget.getBuildConfigurationList().getReferenced();
-            for (PBXObjectRef<XCBuildConfiguration> ref : xcConfigurationList.getOrCreateBuildConfigurations()) {
-                XCBuildConfiguration xcBuildConfiguration = ref.getReferenced();
-                if (xcBuildConfiguration.getName().equals(getMode().getXcodeCompatibleName())) {
-                    final NextStep developmentTeam = xcBuildConfiguration.getOrCreateBuildSettings().get("DEVELOPMENT_TEAM");
-                    if (developmentTeam != null && ((Value)developmentTeam).value.length() != 0) {
-                        return true;
-                    }
-                }
+            if (hasDevelopmentTeam(targetConfigurations.get(getMode().getXcodeCompatibleName()))) {
+                return true;
             }
-
-            xcConfigurationList = project.getRoot().getRootObject().getReferenced().getBuildConfigurationList()
-                    .getReferenced();
-            for (PBXObjectRef<XCBuildConfiguration> ref : xcConfigurationList.getOrCreateBuildConfigurations()) {
-                XCBuildConfiguration xcBuildConfiguration = ref.getReferenced();
-                if (xcBuildConfiguration.getName().equals(getMode().getXcodeCompatibleName())) {
-                    final NextStep developmentTeam = xcBuildConfiguration.getOrCreateBuildSettings().get("DEVELOPMENT_TEAM");
-                    if (developmentTeam != null && ((Value)developmentTeam).value.length() != 0) {
-                        return true;
-                    }
-                }
+            if (hasDevelopmentTeam(project.getProjectConfigurations().get(getMode().getXcodeCompatibleName()))) {
+                return true;
             }
         } catch (Throwable t) {
             getProject().getLogger().log(LogLevel.ERROR, "Failed to read Xcode project file", t);
@@ -858,9 +895,17 @@ public class XcodeBuild extends AbstractBaseTask {
         return false;
     }
 
+    private static boolean hasDevelopmentTeam(@Nullable XCBuildConfiguration xcBuildConfiguration) {
+        if (xcBuildConfiguration == null) {
+            return false;
+        }
+        final NextStep developmentTeam = xcBuildConfiguration.getOrCreateBuildSettings().get("DEVELOPMENT_TEAM");
+        return developmentTeam != null && ((Value)developmentTeam).value.length() != 0;
+    }
+
     private void generateSchemeIfNeeded(String scheme) {
         try {
-            Server remoteServer = getMoePlugin().getRemoteServer();
+            Server remoteServer = getRemoteServer();
             String user = remoteServer == null ? System.getProperty("user.name") : remoteServer.getUserName();
 
             File schemeDir = Paths.get(
@@ -881,24 +926,15 @@ public class XcodeBuild extends AbstractBaseTask {
                 schemeDir.mkdirs();
             }
 
-            ProjectFile proj = new ProjectFile(getXcodeProjectFile());
+            final XcodeProjectCache.ParsedProject parsed = getMoePlugin().getXcodeProjectCache().get(getXcodeProjectFile());
 
             // Look for a target with the same name
-            Array<PBXObjectRef<PBXNativeTarget>> targets = proj.getRoot().getRootObject().getReferenced().getTargetsOrNull();
-            PBXNativeTarget target = null;
-            String targetId = null;
-            for (PBXObjectRef<PBXNativeTarget> targetRef : targets) {
-                PBXNativeTarget targetCandidate = targetRef.getReferenced();
-
-                if (targetCandidate.getName().equals(scheme)) {
-                    target = targetCandidate;
-                    targetId = targetRef.value;
-                    break;
-                }
-            }
-            if (target == null) {
+            final PBXObjectRef<PBXNativeTarget> targetRef = parsed.getTargetRef(scheme);
+            if (targetRef == null) {
                 throw new GradleException("No target exists with the name of " + scheme);
             }
+            final PBXNativeTarget target = targetRef.getReferenced();
+            final String targetId = targetRef.value;
 
             // Generate xcscheme file
             File schemeFile = Paths.get(schemeDir.getAbsolutePath(), scheme + ".xcscheme").toFile();
@@ -920,7 +956,7 @@ public class XcodeBuild extends AbstractBaseTask {
                 String targetTemplate = "" + template;
 
                 {
-                    String localPath = new File(getXcodeProjectFile(), proj.getRoot().getRootObject().getReferenced().getProjectDirPath()).toURI()
+                    String localPath = new File(getXcodeProjectFile(), parsed.getProjectDirPath()).toURI()
                             .relativize(getXcodeProjectFile().toURI()).getPath();
                     if (localPath.isEmpty()) {
                         localPath = getXcodeProjectFile().getName();
@@ -1019,6 +1055,93 @@ public class XcodeBuild extends AbstractBaseTask {
         }
     }
 
+    @NotNull
+    private FileList createProjectFileList(@NotNull Server remoteServer, boolean background) {
+        final MoeExtension ext = getMoePlugin().getExtension();
+        File projectDir = getProject().getParent() != null ? getProject().getParent().getProjectDir() : getProject().getProjectDir();
+        final FileList list = new FileList(projectDir, remoteServer.getBuildDir());
+
+        // Collect files we don't want to upload
+        final Set<File> excludes = new HashSet<>();
+
+        // Exclude some special paths
+        excludes.add(new File(getProject().getProjectDir(), "moe.remotebuild.properties"));
+        excludes.add(new File(getProject().getBuildDir(), "tmp"));
+        excludes.add(new File(getProject().getRootDir(), ".gradle"));
+        excludes.add(new File(getProject().getRootDir(), ".idea"));
+
+        // Exclude files from dependencies
+        for (XcodeProvider xcodeProvider : getXcodeProviderTaskDeps()) {
+            excludes.add(xcodeProvider.getLogFile());
+            excludes.add(resolvePathInBuildDir(xcodeProvider.getOutRoot()));
+
+            final Dex2Oat dex2OatTask = xcodeProvider.getDex2OatTaskDep();
+            excludes.add(dex2OatTask.getLogFile());
+            if (background) {
+                // Remote dex2oat writes these to the same remote paths, a late unzip of the previous outputs would
+                // overwrite the fresh ones before they are downloaded
+                excludes.add(dex2OatTask.getDestImageFile());
+                excludes.add(dex2OatTask.getDestOatFile());
+            }
+
+            final Dex dexTask = dex2OatTask.getDexTaskDep();
+            excludes.add(dexTask.getDestDir());
+            excludes.add(dexTask.getLogFile());
+
+            final ClassValidate classValidateTask = dexTask.getClassValidateTaskDep();
+            excludes.add(classValidateTask.getOutputDir());
+            excludes.add(classValidateTask.getLogFile());
+
+            final Desugar desugarTask = classValidateTask.getDesugarTaskDep();
+            excludes.add(desugarTask.getAppOutJar());
+            excludes.add(desugarTask.getRuntimeOutJar());
+            excludes.add(desugarTask.getComposedCfgFile());
+            excludes.add(desugarTask.getLogFile());
+
+            final ProGuard proGuardTask = desugarTask.getProGuardTaskDep();
+            excludes.add(proGuardTask.getOutJar());
+            excludes.add(proGuardTask.getComposedCfgFile());
+            excludes.add(proGuardTask.getLogFile());
+
+            final JavaCompile classesTask = proGuardTask.getJavaCompileTaskDep();
+            if (classesTask != null) {
+                excludes.add(classesTask.getDestinationDir());
+            }
+
+            final StartupProvider startupProviderTask = xcodeProvider.getStartupProviderTaskDep();
+            excludes.add(startupProviderTask.getLogFile());
+        }
+
+        // Exclude files from "self"
+        excludes.add(getLogFile());
+        excludes.add(new File(getXcodeBuildRoot()));
+        excludes.add(getLocalSDKLink().toFile());
+
+        List<File> excluded = ext.remoteBuildOptions.getExcludes();
+        if (excluded != null) {
+            excludes.addAll(excluded);
+        }
+
+        // TODO: exclude IPA
+
+        list.add(getProject().getProjectDir(), excludes);
+        return list;
+    }
+
+    /**
+     * Starts syncing the project tree to the remote server while the local bytecode processing tasks are running.
+     * The outputs of those tasks, including the image and oat files of the previous build, are excluded from the
+     * list, {@link #run()} uploads them with the final delta.
+     */
+    private void startBackgroundUpload() {
+        if (!getMoeExtension().remoteBuildOptions.isBackgroundUpload()
+                || !getProject().getGradle().getTaskGraph().hasTask(this)) {
+            return;
+        }
+        final Server remoteServer = Require.nonNull(getRemoteServer());
+        remoteServer.uploadInBackground("project files", () -> createProjectFileList(remoteServer, true));
+    }
+
     private void uploadResources(Server remoteServer, File projectDir, List<File> resources) {
         final FileList resourceList = new FileList(projectDir, remoteServer.getBuildDir());
 
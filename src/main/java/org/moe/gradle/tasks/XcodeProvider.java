@@ -21,7 +21,6 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.SourceSet;
 import org.moe.document.pbxproj.ProjectException;
-import org.moe.generator.project.writer.XcodeEditor;
 import org.moe.gradle.MoePlatform;
 import org.moe.gradle.MoePlugin;
 import org.moe.gradle.anns.IgnoreUnused;
@@ -69,7 +68,7 @@ public class XcodeProvider extends AbstractBaseTask {
         Require.nonNull(dex2OatTask);
         Require.nonNull(arch);
 
-        final Server remoteServer = getMoePlugin().getRemoteServer();
+        final Server remoteServer = getRemoteServer();
         if (remoteServer != null) {
             final Path artRel;
             final Path oatRel;
@@ -102,8 +101,7 @@ public class XcodeProvider extends AbstractBaseTask {
             XcodeOptions xcode = getMoeExtension().xcode;
             File xcodeFile = getProject().file(xcode.getProject());
             try {
-                XcodeEditor xcodeEditor = new XcodeEditor(xcodeFile);
-                if (!xcodeEditor.isUpToDate()) {
+                if (!getMoePlugin().getXcodeProjectCache().isUpToDate(xcodeFile)) {
                     throw new GradleException("Xcode project is not up to date, update it with task " +
                             MoePlugin.getTaskName(UpdateXcodeSettings.class));
                 }
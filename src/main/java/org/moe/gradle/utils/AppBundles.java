@@ -0,0 +1,146 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.gradle.api.GradleException;
+import org.moe.gradle.anns.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares app bundles by their contents.
+ * <p>
+ * The file layouts (relative paths, sizes and symbolic link targets) are compared first, so only bundles with the
+ * same layout are hashed. The hash of a built bundle is cached while its layout and modification times don't change.
+ */
+public class AppBundles {
+
+    private static final Map<File, String[]> DIGEST_CACHE = new ConcurrentHashMap<>();
+
+    private AppBundles() {
+    }
+
+    /**
+     * Returns true if both bundles have the same files with the same contents.
+     *
+     * @param built     bundle built by this project
+     * @param installed installed bundle
+     * @return true if the bundles match
+     */
+    public static boolean matches(@NotNull File built, @NotNull File installed) {
+        Require.nonNull(built);
+        Require.nonNull(installed);
+
+        if (!built.isDirectory() || !installed.isDirectory()) {
+            return false;
+        }
+        final Map<String, String> builtLayout = getLayout(built.toPath(), false);
+        if (!builtLayout.equals(getLayout(installed.toPath(), false))) {
+            return false;
+        }
+        return getDigest(built, builtLayout).equals(computeDigest(installed.toPath(), builtLayout));
+    }
+
+    @NotNull
+    private static String getDigest(@NotNull File bundle, @NotNull Map<String, String> layout) {
+        final String stamp = getLayout(bundle.toPath(), true).toString();
+        final String[] cached = DIGEST_CACHE.get(bundle);
+        if (cached != null && cached[0].equals(stamp)) {
+            return cached[1];
+        }
+        final String digest = computeDigest(bundle.toPath(), layout);
+        DIGEST_CACHE.put(bundle, new String[]{stamp, digest});
+        return digest;
+    }
+
+    /**
+     * Returns the relative paths of the bundle's files mapped to their sizes or link targets, optionally with their
+     * modification times.
+     */
+    @NotNull
+    private static Map<String, String> getLayout(@NotNull Path root, boolean withTimes) {
+        final List<Path> paths;
+        try (Stream<Path> stream = Files.walk(root)) {
+            paths = stream.filter(path -> Files.isSymbolicLink(path) || Files.isRegularFile(path))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new GradleException("Failed to list " + root, e);
+        }
+        final Map<String, String> layout = new TreeMap<>();
+        for (Path path : paths) {
+            final String name = root.relativize(path).toString();
+            try {
+                if (Files.isSymbolicLink(path)) {
+                    layout.put(name, "-> " + Files.readSymbolicLink(path));
+                } else {
+                    final File file = path.toFile();
+                    layout.put(name, withTimes ? file.length() + ":" + file.lastModified()
+                            : Long.toString(file.length()));
+                }
+            } catch (IOException e) {
+                throw new GradleException("Failed to read " + path, e);
+            }
+        }
+        return layout;
+    }
+
+    @NotNull
+    private static String computeDigest(@NotNull Path root, @NotNull Map<String, String> layout) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+        final byte[] buffer = new byte[64 * 1024];
+        for (Map.Entry<String, String> entry : layout.entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            final Path path = root.resolve(entry.getKey());
+            if (Files.isSymbolicLink(path)) {
+                digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            try (InputStream input = Files.newInputStream(path)) {
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new GradleException("Failed to read " + path, e);
+            }
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -16,62 +16,221 @@ limitations under the License.
 
 package org.moe.gradle.utils;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.gradle.api.GradleException;
 import org.moe.gradle.anns.IgnoreUnused;
-
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Date;
-import java.util.HashMap;
-
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Parses the output of the JUnit test runner and writes the raw output, an XML and an HTML report.
+ * <p>
+ * The reports are streamed: the raw output goes straight to disk and the test cases are written as soon as their
+ * suite is finished, so only the cases of the current suite are kept in memory. The report bodies are written to
+ * temporary files next to the reports and prefixed with the summary on {@link #close()}.
+ * <p>
+ * Test durations are taken from the {@code %TESTE} message if the runner appends the duration measured on the target
+ * as {@code #<millis>}, otherwise they are measured on the host with {@link System#nanoTime()}. The durations can also
+ * be written to a tab separated timings file, one test case per line, see {@link #TIMINGS_HEADER}.
+ */
 public class JUnitTestCollector {
 
     /**
      * JUnit test message IDs.
      */
-    private class MessageIDs {
+    private enum MessageID {
 
         /**
          * Test run start message ID.
          */
-        private static final String TEST_RUN_START = "%TESTC  :";
+        TEST_RUN_START("%TESTC  :"),
 
         /**
          * Test definition message ID.
          */
-        private static final String TEST_DEFINE = "%TESTD  :";
+        TEST_DEFINE("%TESTD  :"),
 
         /**
          * Test start message ID.
          */
-        private static final String TEST_START = "%TESTS  :";
+        TEST_START("%TESTS  :"),
 
         /**
          * Test end message ID.
          */
-        private static final String TEST_END = "%TESTE  :";
+        TEST_END("%TESTE  :"),
 
         /**
          * Test error message ID.
          */
-        private static final String TEST_ERROR = "%ERROR  :";
+        TEST_ERROR("%ERROR  :"),
 
         /**
          * Test failed message ID.
          */
-        private static final String TEST_FAILED = "%FAILED :";
+        TEST_FAILED("%FAILED :"),
 
         /**
          * Test ignored message ID.
          */
-        private static final String TEST_IGNORED = "%IGNORED:";
+        TEST_IGNORED("%IGNORED:"),
 
         /**
          * Test run end message ID.
          */
-        private static final String TEST_RUN_END = "%RUNTIME:";
+        TEST_RUN_END("%RUNTIME:");
+
+        /**
+         * Length of all message IDs.
+         */
+        private static final int LENGTH = 9;
+
+        private final byte[] prefix;
+
+        MessageID(String prefix) {
+            this.prefix = prefix.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Returns the message ID the line starts with. Candidates are selected by the bytes which differ between the
+         * IDs, so a regular output line is usually rejected after looking at its first byte.
+         *
+         * @param line buffer containing the line
+         * @param off  offset of the line
+         * @param len  length of the line
+         * @return message ID or null
+         */
+        @Nullable
+        private static MessageID of(@NotNull byte[] line, int off, int len) {
+            if (len < LENGTH || line[off] != '%' || line[off + LENGTH - 1] != ':') {
+                return null;
+            }
+
+            final MessageID candidate;
+            switch (line[off + 1]) {
+                case 'T':
+                    switch (line[off + 5]) {
+                        case 'C':
+                            candidate = TEST_RUN_START;
+                            break;
+                        case 'D':
+                            candidate = TEST_DEFINE;
+                            break;
+                        case 'S':
+                            candidate = TEST_START;
+                            break;
+                        case 'E':
+                            candidate = TEST_END;
+                            break;
+                        default:
+                            return null;
+                    }
+                    break;
+                case 'E':
+                    candidate = TEST_ERROR;
+                    break;
+                case 'F':
+                    candidate = TEST_FAILED;
+                    break;
+                case 'I':
+                    candidate = TEST_IGNORED;
+                    break;
+                case 'R':
+                    candidate = TEST_RUN_END;
+                    break;
+                default:
+                    return null;
+            }
+
+            for (int i = 2; i < LENGTH - 1; ++i) {
+                if (line[off + i] != candidate.prefix[i]) {
+                    return null;
+                }
+            }
+            return candidate;
+        }
     }
 
+    /**
+     * Header of the timings file. Source is either {@code target} or {@code host}, result is one of {@code ok},
+     * {@code failed} or {@code ignored}.
+     */
+    public static final String TIMINGS_HEADER = "class\tmethod\tmillis\tsource\tresult";
+
+    /**
+     * Maximum number of characters kept from a failure message.
+     */
+    private static final int MAX_FAILURE_LENGTH = 64 * 1024;
+
+    private static final String HTML_HEAD = "" +
+                "<!DOCTYPE html>\n" +
+                "<html>\n" +
+                "<head>\n" +
+                "<title>JUnit Test Results</title>\n" +
+                "\t<style>\n" +
+                "body { background-color: #FFFFFF; }\n" +
+                "h1 { margin-left: 20px; }\n" +
+                "h2 { margin-left: 30px; }\n" +
+                "table { border-spacing: 0; width: 98%; margin-left: auto; margin-right: auto; border: 1px solid black; }\n" +
+                "table > * > tr > td { padding: 2px 5px; border-left: 1px solid black; border-bottom: 1px solid black; }\n" +
+                "table > * > tr > td:first-child { border-left: 0px solid black; }\n" +
+                "table > thead { background-color: #6D6D6D; color: #FFFFFF; }\n" +
+                "table > thead > tr > td { font-weight: bold; font-size: 105%; letter-spacing: 0.05em; }\n" +
+                "table > tbody > tr:last-child > td { border-bottom: 0px solid black; }\n" +
+                ".cases { margin: 20px; }\n" +
+                ".failure { padding: 20px; }\n" +
+                "\n" +
+                ".color-ok { background-color: #B7E57F; }\n" +
+                ".color-warn { background-color: #E4DF7C; }\n" +
+                ".color-fail { background-color: #E57F84; }\n" +
+                ".color-ignore { background-color: #DCDCDC; }\n" +
+                "\n" +
+                ".even { background-color: #FFFFFF; }\n" +
+                ".odd { background-color: #D7D7D7; }\n" +
+                "\t</style>\n" +
+                "\t<script type=\"text/javascript\">\n" +
+                "function toggleCell(name) {\n" +
+                "\tvar elem = document.getElementById(name);\n" +
+                "\tif (elem.style.display == 'none') {\n" +
+                "\t\telem.style.display = 'table-row'\n" +
+                "\t} else {\n" +
+                "\t\telem.style.display = 'none'\n" +
+                "\t}\n" +
+                "}\n" +
+                "function hideAllSuites() {\n" +
+                "\tvar classes = document.querySelectorAll('.suite-cases');\n" +
+                "\tfor (var i = 0; i < classes.length; i++) { classes[i].style.display = 'none'; }\n" +
+                "}\n" +
+                "\t</script>\n" +
+                "</head>\n" +
+                "<body onload=\"hideAllSuites()\">\n";
+
     /**
      * Number of tests.
      */
@@ -96,16 +255,77 @@ public class JUnitTestCollector {
      * Test received last message flag.
      */
     private boolean hasEnded;
+    /**
+     * Collector was closed flag.
+     */
+    private boolean closed;
+
+    /**
+     * Name of the target the tests run on.
+     */
+    @NotNull
+    private final String targetName;
+
+    /**
+     * Raw output file.
+     */
+    @NotNull
+    private final OutputStream txt;
+
+    /**
+     * XML report file and its temporary body.
+     */
+    @NotNull
+    private final File xmlFile;
+    @NotNull
+    private final File xmlBodyFile;
+    @NotNull
+    private final Writer xmlBody;
+
+    /**
+     * HTML report file and its temporary body.
+     */
+    @NotNull
+    private final File htmlFile;
+    @NotNull
+    private final File htmlBodyFile;
+    @NotNull
+    private final Writer htmlBody;
+
+    /**
+     * Timings file or null.
+     */
+    @Nullable
+    private final Writer timings;
+
+    /**
+     * Progress reporter or null.
+     */
+    @Nullable
+    private TestProgress progress;
 
     /**
-     * Test suites.
+     * Test classes of the shard the run is limited to, or null.
      */
-    private final HashMap<String, TestSuite> suites = new HashMap<>();
+    @Nullable
+    private Set<String> shard;
 
     /**
-     * Complete input.
+     * Notified with the first suite outside of the shard.
      */
-    private final StringBuilder completeInput = new StringBuilder();
+    @Nullable
+    private Consumer<String> shardListener;
+
+    /**
+     * First suite outside of the shard, or null.
+     */
+    @Nullable
+    private volatile String unexpectedSuite;
+
+    /**
+     * Number of suites written to the HTML report.
+     */
+    private int suiteIndex;
 
     /**
      * Class representing a test suite.
@@ -115,14 +335,10 @@ public class JUnitTestCollector {
          * Name of the suite.
          */
         String name;
-        /**
-         * Suite execution time.
-         */
-        long time;
         /**
          * Test cases in suite.
          */
-        final HashMap<String, TestCase> cases = new HashMap<>();
+        final List<TestCase> cases = new ArrayList<>();
     }
 
     /**
@@ -134,228 +350,547 @@ public class JUnitTestCollector {
          */
         String name;
         /**
-         * Case execution time.
+         * Name of the case as reported by the runner, including the suite name.
+         */
+        String id;
+        /**
+         * Case execution time in milliseconds.
          */
         long time;
         /**
-         * Failure string or null.
+         * Host time when the case started.
          */
-        StringBuilder failure;
+        long startNanos;
         /**
-         * Case test was started.
+         * Execution time was reported by the target.
          */
-        boolean wasStarted = false;
+        boolean targetTime;
+        /**
+         * Failure string or null.
+         */
+        StringBuilder failure;
         /**
          * Case test was ignored.
          */
         boolean wasIgnored = false;
+        /**
+         * Case was defined, but never started.
+         */
+        boolean notStarted = false;
     }
 
+    /**
+     * Suite of the last started test, written out when a test of another suite starts.
+     */
+    private TestSuite currentSuite;
+
     private TestCase currentTest;
 
+    /**
+     * Names of the defined cases which did not start yet, by suite name. They are reported as not started when their
+     * suite is written.
+     */
+    private final Map<String, Set<String>> pendingCases = new LinkedHashMap<>();
+
+    /**
+     * Creates a new collector writing to the specified files.
+     *
+     * @param targetName name of the target the tests run on
+     * @param txtFile    raw output file
+     * @param xmlFile    XML report file
+     * @param htmlFile   HTML report file
+     */
+    public JUnitTestCollector(@NotNull String targetName, @NotNull File txtFile, @NotNull File xmlFile,
+                              @NotNull File htmlFile) {
+        this(targetName, txtFile, xmlFile, htmlFile, null);
+    }
+
+    /**
+     * Creates a new collector writing to the specified files.
+     *
+     * @param targetName  name of the target the tests run on
+     * @param txtFile     raw output file
+     * @param xmlFile     XML report file
+     * @param htmlFile    HTML report file
+     * @param timingsFile timings file or null
+     */
+    public JUnitTestCollector(@NotNull String targetName, @NotNull File txtFile, @NotNull File xmlFile,
+                              @NotNull File htmlFile, @Nullable File timingsFile) {
+        this.targetName = Require.nonNull(targetName);
+        this.xmlFile = Require.nonNull(xmlFile);
+        this.htmlFile = Require.nonNull(htmlFile);
+        this.xmlBodyFile = new File(xmlFile.getParentFile(), xmlFile.getName() + ".part");
+        this.htmlBodyFile = new File(htmlFile.getParentFile(), htmlFile.getName() + ".part");
+        try {
+            this.txt = new BufferedOutputStream(new FileOutputStream(Require.nonNull(txtFile)));
+        } catch (IOException e) {
+            throw new GradleException("Failed to open " + txtFile, e);
+        }
+        this.xmlBody = open(xmlBodyFile);
+        this.htmlBody = open(htmlBodyFile);
+        if (timingsFile != null) {
+            this.timings = open(timingsFile);
+            try {
+                this.timings.write(TIMINGS_HEADER + "\n");
+            } catch (IOException e) {
+                throw new GradleException("Failed to write " + timingsFile, e);
+            }
+        } else {
+            this.timings = null;
+        }
+    }
+
+    /**
+     * Sets the progress reporter to notify about the test events. The reporter is closed with this collector.
+     *
+     * @param progress progress reporter or null
+     */
+    public void setProgress(@Nullable TestProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Sets the test classes of the shard the run is limited to. The first test of another class is reported to the
+     * listener, it means that the test runner of the app ignored the shard.
+     *
+     * @param classes  test classes of the shard
+     * @param listener called with the name of the first suite outside of the shard
+     */
+    public void setShard(@NotNull Collection<String> classes, @NotNull Consumer<String> listener) {
+        this.shard = new HashSet<>(Require.nonNull(classes));
+        this.shardListener = Require.nonNull(listener);
+    }
+
+    @NotNull
+    private static Writer open(@NotNull File file) {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new GradleException("Failed to open " + file, e);
+        }
+    }
+
     /**
      * Append a line to the test.
      *
      * @param line line to append
      */
     public void appendLine(String line) {
-        if (line == null || line.length() == 0) {
+        if (line == null) {
             return;
         }
+        final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        appendLine(bytes, 0, bytes.length);
+    }
 
-        completeInput.append(line).append('\n');
-
-        if (line.startsWith(MessageIDs.TEST_RUN_START)) {
+    /**
+     * Append a UTF-8 encoded line to the test. The line is only decoded if it carries a test event or is part of a
+     * failure message.
+     *
+     * @param line buffer containing the line, without the line terminator
+     * @param off  offset of the line
+     * @param len  length of the line
+     */
+    public void appendLine(@NotNull byte[] line, int off, int len) {
+        if (len == 0 || closed) {
+            return;
+        }
 
-        } else if (line.startsWith(MessageIDs.TEST_DEFINE)) {
-            getTestCase(line.substring(9));
-            ++numTests;
+        try {
+            txt.write(line, off, len);
+            txt.write('\n');
+
+            final MessageID id = MessageID.of(line, off, len);
+            if (id == null) {
+                if (currentTest != null && currentTest.failure != null
+                        && currentTest.failure.length() < MAX_FAILURE_LENGTH) {
+                    currentTest.failure.append("\n").append(new String(line, off, len, StandardCharsets.UTF_8));
+                }
+                return;
+            }
 
-        } else if (line.startsWith(MessageIDs.TEST_START)) {
-            currentTest = getTestCase(line.substring(9));
-            currentTest.time = new Date().getTime();
-            currentTest.wasStarted = true;
-            ++numStarted;
+            switch (id) {
+                case TEST_RUN_START:
+                    break;
+
+                case TEST_DEFINE: {
+                    final String name = getPayload(line, off, len);
+                    checkShard(getSuiteName(name));
+                    pendingCases.computeIfAbsent(getSuiteName(name), k -> new LinkedHashSet<>()).add(getCaseName(name));
+                    ++numTests;
+                    if (progress != null) {
+                        progress.setNumTests(numTests);
+                    }
+                    break;
+                }
 
-        } else if (line.startsWith(MessageIDs.TEST_END)) {
-            currentTest.time = new Date().getTime() - currentTest.time;
-            currentTest = null;
+                case TEST_START: {
+                    final String name = getPayload(line, off, len);
+                    checkShard(getSuiteName(name));
+                    currentTest = addTestCase(name);
+                    currentTest.startNanos = System.nanoTime();
+                    ++numStarted;
+                    if (progress != null) {
+                        progress.testStarted(name);
+                    }
+                    break;
+                }
 
-        } else if (line.startsWith(MessageIDs.TEST_ERROR)) {
-            // JUnit 4+ simplifies errors to failures
-            ++numErrors;
+                case TEST_END:
+                    if (currentTest != null) {
+                        final long millis = getTargetMillis(line, off, len);
+                        if (millis >= 0) {
+                            currentTest.time = millis;
+                            currentTest.targetTime = true;
+                        } else {
+                            setHostTime(currentTest);
+                        }
+                        if (progress != null) {
+                            progress.testEnded(currentTest.id, currentTest.time, currentTest.failure != null);
+                        }
+                        currentTest = null;
+                    }
+                    break;
+
+                case TEST_ERROR:
+                    // JUnit 4+ simplifies errors to failures
+                    ++numErrors;
+                    break;
+
+                case TEST_FAILED:
+                    if (currentTest != null) {
+                        currentTest.failure = new StringBuilder(getPayload(line, off, len));
+                        ++numFailures;
+                    }
+                    break;
+
+                case TEST_IGNORED: {
+                    final String name = getPayload(line, off, len);
+                    final TestCase testCase = addTestCase(name);
+                    testCase.wasIgnored = true;
+                    ++numIgnored;
+                    if (progress != null) {
+                        progress.testEnded(name, 0, false);
+                    }
+                    break;
+                }
 
-        } else if (line.startsWith(MessageIDs.TEST_FAILED)) {
-            if (currentTest != null) {
-                currentTest.failure = new StringBuilder(line.substring(9));
-                ++numFailures;
+                case TEST_RUN_END:
+                    hasEnded = true;
+                    writeSuite();
+                    break;
             }
+        } catch (IOException e) {
+            throw new GradleException("Failed to write test report", e);
+        }
+    }
 
-        } else if (line.startsWith(MessageIDs.TEST_IGNORED)) {
-            final TestCase testCase = getTestCase(line.substring(9));
-            testCase.wasIgnored = true;
-            ++numIgnored;
+    private void checkShard(@NotNull String suiteName) {
+        if (shard == null || unexpectedSuite != null || shard.contains(suiteName)) {
+            return;
+        }
+        unexpectedSuite = suiteName;
+        Require.nonNull(shardListener).accept(suiteName);
+    }
 
-        } else if (line.startsWith(MessageIDs.TEST_RUN_END)) {
-            hasEnded = true;
+    @NotNull
+    private static String getPayload(@NotNull byte[] line, int off, int len) {
+        return new String(line, off + MessageID.LENGTH, len - MessageID.LENGTH, StandardCharsets.UTF_8);
+    }
 
-            suites.forEach((_skey, tSuite) -> {
-                tSuite.time = 0;
-                tSuite.cases.forEach((_ckey, tCase) -> {
-                    tSuite.time += tCase.time;
-                });
-            });
-        } else {
-            if (currentTest != null && currentTest.failure != null) {
-                currentTest.failure.append("\n").append(line);
-            }
+    /**
+     * Adds a test case to the current suite, writing out the previous suite if the case belongs to another one.
+     *
+     * @param testCase Test case name
+     * @return test case object
+     */
+    private TestCase addTestCase(String testCase) throws IOException {
+        final String suiteName = getSuiteName(testCase);
+        final String caseName = getCaseName(testCase);
+
+        if (currentSuite == null || !currentSuite.name.equals(suiteName)) {
+            writeSuite();
+            currentSuite = new TestSuite();
+            currentSuite.name = suiteName;
         }
+        final Set<String> pending = pendingCases.get(suiteName);
+        if (pending != null) {
+            pending.remove(caseName);
+        }
+
+        final TestCase tCase = new TestCase();
+        tCase.name = caseName;
+        tCase.id = testCase;
+        currentSuite.cases.add(tCase);
+        return tCase;
+    }
+
+    @NotNull
+    private static String getSuiteName(@NotNull String testCase) {
+        final int idx = testCase.lastIndexOf('-');
+        return idx == -1 ? "" : testCase.substring(0, idx);
+    }
+
+    @NotNull
+    private static String getCaseName(@NotNull String testCase) {
+        return testCase.substring(testCase.lastIndexOf('-') + 1);
     }
 
     /**
-     * Return the complete input
-     *
-     * @return complete input
+     * Writes the current suite to the report bodies, together with its defined cases which did not start.
      */
-    public String getCompleteInput() {
-        return completeInput.toString();
+    private void writeSuite() throws IOException {
+        final TestSuite tSuite = currentSuite;
+        if (tSuite == null) {
+            return;
+        }
+        currentSuite = null;
+        final Set<String> pending = pendingCases.remove(tSuite.name);
+        if (pending != null) {
+            for (String name : pending) {
+                final TestCase tCase = new TestCase();
+                tCase.name = name;
+                tCase.id = tSuite.name + "-" + name;
+                tCase.notStarted = true;
+                tSuite.cases.add(tCase);
+            }
+        }
+        if (currentTest != null && tSuite.cases.contains(currentTest)) {
+            // Test never ended
+            setHostTime(currentTest);
+            currentTest = null;
+        }
+
+        long suiteTime = 0;
+        for (TestCase tCase : tSuite.cases) {
+            suiteTime += tCase.time;
+        }
+
+        writeXMLSuite(tSuite, suiteTime);
+        writeHTMLSuite(tSuite, suiteTime);
+        writeTimings(tSuite);
+    }
+
+    private static void setHostTime(@NotNull TestCase tCase) {
+        tCase.time = (System.nanoTime() - tCase.startNanos) / 1000000;
     }
 
     /**
-     * Return a test case for the specified name
+     * Returns the duration appended to a test end message as {@code #<millis>}.
      *
-     * @param testCase Test case name
-     * @return test case object
+     * @param line buffer containing the line
+     * @param off  offset of the line
+     * @param len  length of the line
+     * @return duration in milliseconds or -1
      */
-    private TestCase getTestCase(String testCase) {
-        try {
-            int idx = testCase.lastIndexOf('-');
-            final String suiteName = testCase.substring(0, idx);
-            final String caseName = testCase.substring(idx + 1);
-
-            TestSuite tSuite = suites.get(suiteName);
-            if (tSuite == null) {
-                tSuite = new TestSuite();
-                tSuite.name = suiteName;
-                suites.put(suiteName, tSuite);
-            }
+    private static long getTargetMillis(@NotNull byte[] line, int off, int len) {
+        final int end = off + len;
+        int idx = end - 1;
+        while (idx >= off + MessageID.LENGTH && line[idx] >= '0' && line[idx] <= '9') {
+            --idx;
+        }
+        // Require 1 to 18 digits to avoid overflows
+        if (idx < off + MessageID.LENGTH || line[idx] != '#' || idx == end - 1 || end - idx > 19) {
+            return -1;
+        }
+        long millis = 0;
+        for (int i = idx + 1; i < end; ++i) {
+            millis = millis * 10 + (line[i] - '0');
+        }
+        return millis;
+    }
 
-            TestCase tCase = tSuite.cases.get(caseName);
-            if (tCase == null) {
-                tCase = new TestCase();
-                tCase.name = caseName;
-                tSuite.cases.put(caseName, tCase);
+    private void writeTimings(TestSuite tSuite) throws IOException {
+        if (timings == null) {
+            return;
+        }
+        final StringBuilder builder = new StringBuilder(256);
+        for (TestCase tCase : tSuite.cases) {
+            if (tCase.notStarted) {
+                continue;
             }
-
-            return tCase;
-        } catch (Exception ex) {
-            // Ignore
+            builder.append(tSuite.name).append('\t')
+                    .append(tCase.name).append('\t')
+                    .append(tCase.time).append('\t')
+                    .append(tCase.targetTime ? "target" : "host").append('\t');
+            if (tCase.wasIgnored) {
+                builder.append("ignored");
+            } else if (tCase.failure != null) {
+                builder.append("failed");
+            } else {
+                builder.append("ok");
+            }
+            builder.append('\n');
         }
-        return new TestCase();
+        timings.write(builder.toString());
     }
 
     private static String getXMLString(String str) {
         return StringEscapeUtils.escapeXml10(str);
     }
 
-    public String getXMLReport() {
-        StringBuilder report = new StringBuilder(16 * 1024);
-
-        report.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        report.append("<testrun " + "tests=\"").append(numTests).append("\" ")
-                .append("started=\"").append(numStarted).append("\" ")
-                .append("failures=\"").append(numFailures).append("\" ")
-                .append("errors=\"").append(numErrors).append("\" ")
-                .append("ignored=\"").append(numIgnored).append("\">\n");
+    private void writeXMLSuite(TestSuite tSuite, long suiteTime) throws IOException {
+        final StringBuilder report = new StringBuilder(1024);
+        report.append("    ");
+        report.append("<testsuite name=\"").append(getXMLString(tSuite.name)).append("\" time=\"").append(getAsSeconds(suiteTime)).append("\">\n");
+        for (TestCase tCase : tSuite.cases) {
+            report.append("        ");
+            report.append("<testcase name=\"").append(getXMLString(tCase.name)).append("\" ");
+            report.append("classname=\"").append(getXMLString(tSuite.name)).append("\" ");
+            report.append("time=\"").append(getAsSeconds(tCase.time)).append("\" ");
+
+            if (tCase.wasIgnored) {
+                report.append("ignored=\"true\" ");
+            }
 
-        suites.forEach((_skey, tSuite) -> {
-            report.append("    ");
-            report.append("<testsuite name=\"").append(getXMLString(tSuite.name)).append("\" time=\"").append(getAsSeconds(tSuite.time)).append("\">\n");
-            tSuite.cases.forEach((_ckey, tCase) -> {
+            if (tCase.notStarted) {
+                report.append(">\n");
+                report.append("            ");
+                report.append("<skipped message=\"Test was not started\" />\n");
                 report.append("        ");
-                report.append("<testcase name=\"").append(getXMLString(tCase.name)).append("\" ");
-                report.append("classname=\"").append(getXMLString(tSuite.name)).append("\" ");
-                report.append("time=\"").append(getAsSeconds(tCase.time)).append("\" ");
-
-                if (tCase.wasIgnored) {
-                    report.append("ignored=\"true\" ");
-                }
-
-                if (tCase.failure != null) {
-                    report.append(">\n");
-                    report.append("            ");
-                    report.append("<failure>");
-                    report.append(getXMLString(tCase.failure.toString()));
-                    report.append("\n            ");
-                    report.append("</failure>\n");
+                report.append("</testcase>\n");
 
+            } else if (tCase.failure != null) {
+                report.append(">\n");
+                report.append("            ");
+                report.append("<failure>");
+                report.append(getXMLString(tCase.failure.toString()));
+                report.append("\n            ");
+                report.append("</failure>\n");
 
-                    report.append("        ");
-                    report.append("</testcase>\n");
-
-                } else {
-                    report.append("/>\n");
-                }
-            });
-            report.append("    ");
-            report.append("</testsuite>\n");
-        });
 
+                report.append("        ");
+                report.append("</testcase>\n");
 
-        report.append("</testrun>\n");
-        return report.toString();
+            } else {
+                report.append("/>\n");
+            }
+        }
+        report.append("    ");
+        report.append("</testsuite>\n");
+        xmlBody.write(report.toString());
     }
 
     private static String getHTMLString(String str) {
         return StringEscapeUtils.escapeHtml4(str);
     }
 
-    public String getHTMLReport(String targetName) {
-        StringBuilder report = new StringBuilder(16 * 1024);
+    private void writeHTMLSuite(TestSuite tSuite, long suiteTime) throws IOException {
+        final StringBuilder report = new StringBuilder(1024);
+        suiteIndex++;
+
+        int numSucc = 0;
+        int numFailed = 0;
+        int numIgnored = 0;
+        for (TestCase tCase : tSuite.cases) {
+            if (tCase.wasIgnored || tCase.notStarted) {
+                ++numIgnored;
+            } else if (tCase.failure != null) {
+                ++numFailed;
+            } else {
+                ++numSucc;
+            }
+        }
+        int numSum = numSucc + numFailed + numIgnored;
+
+        String sumColor = "color-ok";
+        if (numSum == numIgnored) {
+            sumColor = "color-ignore";
+        } else if (numFailed == numSum - numIgnored) {
+            sumColor = "color-fail";
+        } else if (numFailed > 0) {
+            sumColor = "color-warn";
+        }
 
-        report.append("<!DOCTYPE html>\n" +
-                "<html>\n" +
-                "<head>\n" +
-                "<title>JUnit Test Results</title>\n" +
-                "\t<style>\n" +
-                "body { background-color: #FFFFFF; }\n" +
-                "h1 { margin-left: 20px; }\n" +
-                "h2 { margin-left: 30px; }\n" +
-                "table { border-spacing: 0; width: 98%; margin-left: auto; margin-right: auto; border: 1px solid black; }\n" +
-                "table > * > tr > td { padding: 2px 5px; border-left: 1px solid black; border-bottom: 1px solid black; }\n" +
-                "table > * > tr > td:first-child { border-left: 0px solid black; }\n" +
-                "table > thead { background-color: #6D6D6D; color: #FFFFFF; }\n" +
-                "table > thead > tr > td { font-weight: bold; font-size: 105%; letter-spacing: 0.05em; }\n" +
-                "table > tbody > tr:last-child > td { border-bottom: 0px solid black; }\n" +
-                ".cases { margin: 20px; }\n" +
-                ".failure { padding: 20px; }\n" +
-                "\n" +
-                ".color-ok { background-color: #B7E57F; }\n" +
-                ".color-warn { background-color: #E4DF7C; }\n" +
-                ".color-fail { background-color: #E57F84; }\n" +
-                ".color-ignore { background-color: #DCDCDC; }\n" +
-                "\n" +
-                ".even { background-color: #FFFFFF; }\n" +
-                ".odd { background-color: #D7D7D7; }\n" +
-                "\t</style>\n" +
-                "\t<script type=\"text/javascript\">\n" +
-                "function toggleCell(name) {\n" +
-                "\tvar elem = document.getElementById(name);\n" +
-                "\tif (elem.style.display == 'none') {\n" +
-                "\t\telem.style.display = 'table-row'\n" +
-                "\t} else {\n" +
-                "\t\telem.style.display = 'none'\n" +
-                "\t}\n" +
-                "}\n" +
-                "function hideAllSuites() {\n" +
-                "\tvar classes = document.querySelectorAll('.suite-cases');\n" +
-                "\tfor (var i = 0; i < classes.length; i++) { classes[i].style.display = 'none'; }\n" +
-                "}\n" +
-                "\t</script>\n" +
-                "</head>\n" +
-                "<body onload=\"hideAllSuites()\">\n");
-        report.append("<h1>Test report for &lt;").append(getHTMLString(targetName)).append("&gt;</h1>\n");
-        report.append("<h2>Summary</h2>\n" +
+        report.append("\t\t<tr class=\"suite ").append(suiteIndex % 2 == 0 ? "even" : "odd").append("\">")
+                .append("<td>").append(getHTMLString(tSuite.name)).append("</td>")
+                .append("<td>").append(getAsSeconds(suiteTime)).append("</td>")
+                .append("<td class=\"").append(sumColor).append("\">").append(numSucc).append("/").append(numFailed).append("/").append(numIgnored).append("</td>")
+                .append("<td><button onclick=\"toggleCell('suite").append(suiteIndex).append("')\">Show/Hide</button></td>")
+                .append("</tr>\n");
+        report.append("\t\t<tr id=\"suite").append(suiteIndex).append("\" class=\"suite-cases\"><td colspan=\"3\">\n" +
+                "\t\t\t<table class=\"cases\">\n" +
+                "\t\t\t\t<thead>\n" +
+                "\t\t\t\t\t<tr><td>Name</td><td>Time (sec)</td><td>Status</td></tr>\n" +
+                "\t\t\t\t</thead>\n" +
+                "\t\t\t\t<tbody>\n");
+
+        int caseIndex = 0;
+        for (TestCase tCase : tSuite.cases) {
+            caseIndex++;
+
+            report.append("\t\t\t\t\t<tr " +
+                    "class=\"").append(caseIndex % 2 == 0 ? "even" : "odd").append("\">" +
+                    "<td>").append(getHTMLString(tCase.name)).append("</td>" +
+                    "<td>").append(getAsSeconds(tCase.time)).append("</td>");
+            if (tCase.notStarted) {
+                report.append("<td class=\"color-ignore\">Not started</td>");
+            } else if (tCase.wasIgnored) {
+                report.append("<td class=\"color-ignore\">Ignored</td>");
+            } else if (tCase.failure != null) {
+                report.append("<td class=\"color-fail\">Failed</td>");
+            } else {
+                report.append("<td class=\"color-ok\">OK</td>");
+            }
+            report.append("</tr>\n");
+
+            if (tCase.failure != null) {
+                String message = tCase.failure.toString();
+                message = getHTMLString(message.trim());
+                message = message.replaceAll("\n", "<br>\n");
+                report.append("\t\t\t\t\t<tr><td class=\"failure\" colspan=\"3\"><code>").append(message).append("</code></td></tr>\n");
+            }
+        }
+        report.append("\t\t\t\t</tbody>\n" +
+                "\t\t\t</table>\n" +
+                "\t\t</td><td></td></tr>\n");
+        htmlBody.write(report.toString());
+    }
+
+    /**
+     * Writes the remaining suite and completes the reports. Further lines are ignored.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            writeSuite();
+            // Suites of which no case started
+            while (!pendingCases.isEmpty()) {
+                currentSuite = new TestSuite();
+                currentSuite.name = pendingCases.keySet().iterator().next();
+                writeSuite();
+            }
+        } catch (IOException e) {
+            throw new GradleException("Failed to write test report", e);
+        } finally {
+            closeQuietly(txt);
+            closeQuietly(xmlBody);
+            closeQuietly(htmlBody);
+            if (timings != null) {
+                closeQuietly(timings);
+            }
+            if (progress != null) {
+                progress.close();
+            }
+        }
+
+        final StringBuilder xmlHead = new StringBuilder(256);
+        xmlHead.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xmlHead.append("<testrun " + "tests=\"").append(numTests).append("\" ")
+                .append("started=\"").append(numStarted).append("\" ")
+                .append("failures=\"").append(numFailures).append("\" ")
+                .append("errors=\"").append(numErrors).append("\" ")
+                .append("ignored=\"").append(numIgnored).append("\">\n");
+        assemble(xmlFile, xmlHead.toString(), xmlBodyFile, "</testrun>\n");
+
+        final StringBuilder htmlHead = new StringBuilder(HTML_HEAD.length() + 1024);
+        htmlHead.append(HTML_HEAD);
+        htmlHead.append("<h1>Test report for &lt;").append(getHTMLString(targetName)).append("&gt;</h1>\n");
+        htmlHead.append("<h2>Summary</h2>\n" +
                 "<table class=\"summary\">\n" +
                 "\t<thead>\n" +
                 "\t\t<tr><td>Tests</td><td>Started</td><td>Failures</td><td>Errors</td><td>Ignored</td></tr>\n" +
@@ -368,87 +903,45 @@ public class JUnitTestCollector {
                 .append("<td>").append(numErrors).append("</td>")
                 .append("<td>").append(numIgnored).append("</td></tr>\n")
                 .append("\t</tbody>\n").append("</table>\n");
-        report.append("<h2>Results</h2>\n" +
+        htmlHead.append("<h2>Results</h2>\n" +
                 "<table class=\"results\">\n" +
                 "\t<thead>\n" +
                 "\t\t<tr><td>Suite Name</td><td>Time (sec)</td><td>Success/Failed/Ignored</td><td></td></tr>\n" +
                 "\t</thead>\n" +
                 "\t<tbody>\n");
-        final int[] suiteIndex = {0};
-        suites.forEach((_skey, tSuite) -> {
-            suiteIndex[0]++;
-
-            final int[] numSucc = {0};
-            final int[] numFailed = {0};
-            final int[] numIgnored = {0};
-            tSuite.cases.forEach((_ckey, tCase) -> {
-                if (tCase.wasIgnored) {
-                    ++numIgnored[0];
-                } else if (tCase.failure != null) {
-                    ++numFailed[0];
-                } else {
-                    ++numSucc[0];
-                }
-            });
-            int numSum = numSucc[0] + numFailed[0] + numIgnored[0];
-
-            String sumColor = "color-ok";
-            if (numSum == numIgnored[0]) {
-                sumColor = "color-ignore";
-            } else if (numFailed[0] == numSum - numIgnored[0]) {
-                sumColor = "color-fail";
-            } else if (numFailed[0] > 0) {
-                sumColor = "color-warn";
-            }
-
-            report.append("\t\t<tr class=\"suite ").append(suiteIndex[0] % 2 == 0 ? "even" : "odd").append("\">")
-                    .append("<td>").append(getHTMLString(tSuite.name)).append("</td>")
-                    .append("<td>").append(getAsSeconds(tSuite.time)).append("</td>")
-                    .append("<td class=\"").append(sumColor).append("\">").append(numSucc[0]).append("/").append(numFailed[0]).append("/").append(numIgnored[0]).append("</td>")
-                    .append("<td><button onclick=\"toggleCell('suite").append(suiteIndex[0]).append("')\">Show/Hide</button></td>")
-                    .append("</tr>\n");
-            report.append("\t\t<tr id=\"suite").append(suiteIndex[0]).append("\" class=\"suite-cases\"><td colspan=\"3\">\n" +
-                    "\t\t\t<table class=\"cases\">\n" +
-                    "\t\t\t\t<thead>\n" +
-                    "\t\t\t\t\t<tr><td>Name</td><td>Time (sec)</td><td>Status</td></tr>\n" +
-                    "\t\t\t\t</thead>\n" +
-                    "\t\t\t\t<tbody>\n");
-
-            final int[] caseIndex = {0};
-            tSuite.cases.forEach((_ckey, tCase) -> {
-                caseIndex[0]++;
-
-                report.append("\t\t\t\t\t<tr " +
-                        "class=\"").append(caseIndex[0] % 2 == 0 ? "even" : "odd").append("\">" +
-                        "<td>").append(getHTMLString(tCase.name)).append("</td>" +
-                        "<td>").append(getAsSeconds(tCase.time)).append("</td>");
-                if (tCase.wasIgnored) {
-                    report.append("<td class=\"color-ignore\">Ignored</td>");
-                } else if (tCase.failure != null) {
-                    report.append("<td class=\"color-fail\">Failed</td>");
-                } else {
-                    report.append("<td class=\"color-ok\">OK</td>");
-                }
-                report.append("</tr>\n");
-
-                if (tCase.failure != null) {
-                    String message = tCase.failure.toString();
-                    message = getHTMLString(message.trim());
-                    message = message.replaceAll("\n", "<br>\n");
-                    report.append("\t\t\t\t\t<tr><td class=\"failure\" colspan=\"3\"><code>").append(message).append("</code></td></tr>\n");
-                }
-            });
-            report.append("\t\t\t\t</tbody>\n" +
-                    "\t\t\t</table>\n" +
-                    "\t\t</td><td></td></tr>\n");
-        });
-
-        report.append("\t</tbody>\n" +
+        assemble(htmlFile, htmlHead.toString(), htmlBodyFile, "\t</tbody>\n" +
                 "</table>\n" +
                 "</body>\n" +
                 "</html>\n");
+    }
 
-        return report.toString();
+    private static void closeQuietly(@NotNull Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // Nothing to do here
+        }
+    }
+
+    /**
+     * Writes the head, the contents of the body file and the tail to the report file, then deletes the body file.
+     */
+    private static void assemble(@NotNull File out, @NotNull String head, @NotNull File body, @NotNull String tail) {
+        try (OutputStream stream = new FileOutputStream(out)) {
+            stream.write(head.getBytes(StandardCharsets.UTF_8));
+            try (InputStream input = new FileInputStream(body)) {
+                IOUtils.copy(input, stream);
+            }
+            stream.write(tail.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new GradleException("Failed to write " + out, e);
+        } finally {
+            try {
+                Files.deleteIfExists(body.toPath());
+            } catch (IOException ignore) {
+                // Leftover temporary file
+            }
+        }
     }
 
     /**
@@ -510,6 +1003,16 @@ public class JUnitTestCollector {
         return numIgnored;
     }
 
+    /**
+     * Returns the first suite which ran outside of the shard set with {@link #setShard(Collection, Consumer)}.
+     *
+     * @return name of the suite or null
+     */
+    @Nullable
+    public String getUnexpectedSuite() {
+        return unexpectedSuite;
+    }
+
     /**
      * Returns the has ended flag.
      *
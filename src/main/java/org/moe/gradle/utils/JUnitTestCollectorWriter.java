@@ -0,0 +1,117 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.moe.gradle.anns.NotNull;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Splits the output of the JUnit test runner into lines and passes them to a {@link JUnitTestCollector}.
+ * <p>
+ * Lines are handed over as byte ranges, directly from the written buffer when possible, so the output is only copied
+ * for lines which span multiple writes.
+ */
+public class JUnitTestCollectorWriter extends OutputStream {
+
+    /**
+     * Initial size of the line buffer, the buffer is shrunk back to this size after a longer line.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    @NotNull
+    private final JUnitTestCollector testCollector;
+
+    /**
+     * Bytes of the current, unterminated line.
+     */
+    @NotNull
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int count;
+
+    public JUnitTestCollectorWriter(@NotNull JUnitTestCollector testCollector) {
+        this.testCollector = Require.nonNull(testCollector);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            flushLine();
+        } else {
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[count++] = (byte) b;
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if ((off < 0) || (off > b.length) || (len < 0) ||
+                ((off + len) > b.length) || ((off + len) < 0)) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        final int end = off + len;
+        int start = off;
+        for (int i = off; i < end; ++i) {
+            if (b[i] != '\n') {
+                continue;
+            }
+            if (count == 0) {
+                testCollector.appendLine(b, start, i - start);
+            } else {
+                append(b, start, i - start);
+                flushLine();
+            }
+            start = i + 1;
+        }
+        append(b, start, end - start);
+    }
+
+    private void append(@NotNull byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        if (count + len > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + len));
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    private void flushLine() {
+        testCollector.appendLine(buffer, 0, count);
+        count = 0;
+        if (buffer.length > BUFFER_SIZE) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (count > 0) {
+            flushLine();
+        }
+    }
+}
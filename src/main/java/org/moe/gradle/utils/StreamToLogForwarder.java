@@ -17,110 +17,98 @@ limitations under the License.
 package org.moe.gradle.utils;
 
 import org.gradle.api.logging.Logger;
-import org.gradle.api.logging.Logging;
-import org.moe.common.utils.CloseableUtil;
 import org.moe.gradle.anns.NotNull;
 import org.moe.gradle.anns.Nullable;
 
-import java.io.IOException;
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.PrintStream;
-import java.util.Scanner;
-
+import java.nio.charset.Charset;
+
+/**
+ * Splits the written bytes into lines and forwards them to a logger.
+ * <p>
+ * Lines are logged on the writing thread as soon as they are complete, a trailing incomplete line is logged when the
+ * stream is closed. Flushing does not break lines, as writers like Gradle's exec handler flush after every chunk.
+ */
 public class StreamToLogForwarder extends OutputStream {
 
-    private static final Logger LOG = Logging.getLogger(StreamToLogForwarder.class);
-
-    @Nullable private final PipedOutputStream pos;
+    @NotNull private final Logger target;
 
-    @Nullable private final PipedInputStream pis;
+    private final boolean isError;
 
-    @NotNull private final PrintStream fallback;
+    @Nullable private final String prefix;
 
-    public StreamToLogForwarder(@NotNull Logger target, boolean isError) {
-        Require.nonNull(target);
-
-        fallback = isError ? System.err : System.out;
-
-        PipedOutputStream _pos = null;
-        PipedInputStream _pis = null;
-        try {
-            _pos = new PipedOutputStream();
-            _pis = new PipedInputStream(_pos);
-        } catch (IOException e) {
-            LOG.error("Failed to create LogForwarder streams", e);
-            CloseableUtil.tryClose(_pos, LOG, "Failed to close PipedOutputStream");
-            CloseableUtil.tryClose(_pis, LOG, "Failed to close PipedInputStream");
-            _pos = null;
-            _pis = null;
-        } finally {
-            pos = _pos;
-            pis = _pis;
-        }
+    @NotNull private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
 
-        if (pis == null) {
-            return;
-        }
+    private boolean closed;
 
-        Scanner scanner = new Scanner(pis);
+    public StreamToLogForwarder(@NotNull Logger target, boolean isError) {
+        this(target, isError, null);
+    }
 
-        if (isError) {
-            new Thread(() -> {
-                while (scanner.hasNextLine()) {
-                    target.error(scanner.nextLine());
-                }
-            }).start();
-        } else {
-            new Thread(() -> {
-                while (scanner.hasNextLine()) {
-                    target.quiet(scanner.nextLine());
-                }
-            }).start();
-        }
+    /**
+     * Creates a forwarder which prepends the prefix to every line, to tell apart the output of concurrent processes.
+     */
+    public StreamToLogForwarder(@NotNull Logger target, boolean isError, @Nullable String prefix) {
+        this.target = Require.nonNull(target);
+        this.isError = isError;
+        this.prefix = prefix;
     }
 
     @Override
-    public void write(int b) throws IOException {
-        if (pos != null) {
-            pos.write(b);
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            emit();
         } else {
-            fallback.write(b);
+            line.write(b);
         }
     }
 
     @Override
-    public void write(byte[] b) throws IOException {
-        if (pos != null) {
-            pos.write(b, 0, b.length);
-        } else {
-            fallback.write(b);
-        }
+    public void write(byte[] b) {
+        write(b, 0, b.length);
     }
 
     @Override
-    public void write(byte[] b, int off, int len) throws IOException {
-        if (pos != null) {
-            pos.write(b, off, len);
-        } else {
-            fallback.write(b, off, len);
+    public synchronized void write(byte[] b, int off, int len) {
+        final int end = off + len;
+        int start = off;
+        for (int idx = off; idx < end; idx++) {
+            if (b[idx] == '\n') {
+                line.write(b, start, idx - start);
+                emit();
+                start = idx + 1;
+            }
         }
+        line.write(b, start, end - start);
     }
 
     @Override
-    public void flush() throws IOException {
-        if (pos != null) {
-            pos.flush();
-        } else {
-            fallback.flush();
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (line.size() > 0) {
+            emit();
         }
     }
 
-    @Override
-    public void close() throws IOException {
-        flush();
-        CloseableUtil.tryClose(pos, LOG, "Failed to close PipedOutputStream");
-        CloseableUtil.tryClose(pis, LOG, "Failed to close PipedInputStream");
+    private void emit() {
+        int size = line.size();
+        final byte[] bytes = line.toByteArray();
+        if (size > 0 && bytes[size - 1] == '\r') {
+            --size;
+        }
+        String text = new String(bytes, 0, size, Charset.defaultCharset());
+        if (prefix != null) {
+            text = prefix + text;
+        }
+        line.reset();
+        if (isError) {
+            target.error(text);
+        } else {
+            target.quiet(text);
+        }
     }
 }
@@ -0,0 +1,258 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.gradle.api.Project;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the progress of a test run on a target while it is running.
+ * <p>
+ * The status shows the completed and running tests, the current test, the elapsed time and an estimate of the remaining
+ * time, and is updated on every test event and once per second. It is shown by a Gradle progress logger, so targets
+ * running in parallel each get their own status line. Tests which run for much longer than expected are reported with
+ * a warning.
+ */
+public class TestProgress {
+
+    private static final Logger LOG = Logging.getLogger(TestProgress.class);
+
+    /**
+     * Tests running this many times longer than their average duration are reported as hung.
+     */
+    private static final int HUNG_FACTOR = 5;
+
+    /**
+     * Tests are never reported as hung before this time.
+     */
+    private static final long MIN_HUNG_MILLIS = 10000;
+
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "moe-test-progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @NotNull
+    private final String targetName;
+
+    /**
+     * Average durations of the test cases from the timing history, keyed by test name.
+     */
+    @NotNull
+    private final Map<String, Double> averages;
+
+    private final long hungMillis;
+
+    @Nullable
+    private final ProgressLogger progressLogger;
+
+    @NotNull
+    private final ScheduledFuture<?> tick;
+
+    private final long startNanos = System.nanoTime();
+
+    private int numTests;
+    private int numCompleted;
+    private int numFailed;
+
+    /**
+     * Sum of the durations of the completed tests.
+     */
+    private long completedMillis;
+
+    /**
+     * Average test duration in the history or -1.
+     */
+    private final double historyMillis;
+
+    @Nullable
+    private String currentTest;
+    private long currentStartNanos;
+    private boolean currentReported;
+
+    /**
+     * Creates and starts a new progress reporter.
+     *
+     * @param project    project
+     * @param targetName name of the target the tests run on
+     * @param averages   average durations of the test cases in milliseconds, keyed by test name
+     * @param hungMillis time after which a running test is reported as hung
+     */
+    public TestProgress(@NotNull Project project, @NotNull String targetName, @NotNull Map<String, Double> averages,
+                        long hungMillis) {
+        Require.nonNull(project);
+        this.targetName = Require.nonNull(targetName);
+        this.averages = Require.nonNull(averages);
+        this.hungMillis = hungMillis;
+        this.historyMillis = averages.isEmpty() ? -1
+                : averages.values().stream().mapToDouble(Double::doubleValue).average().orElse(-1);
+        this.progressLogger = createProgressLogger(project, "Running tests on " + targetName);
+        this.tick = TICKER.scheduleAtFixedRate(this::update, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Nullable
+    private static ProgressLogger createProgressLogger(@NotNull Project project, @NotNull String description) {
+        try {
+            final ProgressLogger logger = ((ProjectInternal) project).getServices().get(ProgressLoggerFactory.class)
+                    .newOperation(TestProgress.class);
+            logger.setDescription(description);
+            logger.started();
+            return logger;
+        } catch (RuntimeException | LinkageError e) {
+            // Internal API, fall back to the hung test warnings only
+            LOG.debug("Progress logger is not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Sets the number of tests in the run.
+     */
+    public synchronized void setNumTests(int numTests) {
+        this.numTests = numTests;
+    }
+
+    /**
+     * Called when a test starts.
+     *
+     * @param name name of the test, as {@code <class>-<method>}
+     */
+    public synchronized void testStarted(@NotNull String name) {
+        currentTest = name;
+        currentStartNanos = System.nanoTime();
+        currentReported = false;
+        update();
+    }
+
+    /**
+     * Called when a test ends or is ignored.
+     *
+     * @param name   name of the test, as {@code <class>-<method>}
+     * @param millis duration of the test
+     * @param failed true if the test failed
+     */
+    public synchronized void testEnded(@NotNull String name, long millis, boolean failed) {
+        ++numCompleted;
+        if (failed) {
+            ++numFailed;
+        }
+        completedMillis += millis;
+        if (name.equals(currentTest)) {
+            currentTest = null;
+        }
+        update();
+    }
+
+    /**
+     * Completes the progress logger and stops updating.
+     */
+    public void close() {
+        tick.cancel(false);
+        if (progressLogger != null) {
+            synchronized (this) {
+                progressLogger.completed();
+            }
+        }
+    }
+
+    private synchronized void update() {
+        final long now = System.nanoTime();
+        final long currentMillis = currentTest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(now - currentStartNanos);
+
+        if (currentTest != null && !currentReported && isHung(currentTest, currentMillis)) {
+            currentReported = true;
+            LOG.warn(targetName + ": " + currentTest + " has been running for " + formatMillis(currentMillis) +
+                    ", it may be hung");
+        }
+
+        if (progressLogger == null) {
+            return;
+        }
+        final StringBuilder status = new StringBuilder();
+        status.append(numCompleted);
+        if (numTests > 0) {
+            status.append('/').append(numTests);
+        }
+        status.append(" tests completed");
+        if (numFailed > 0) {
+            status.append(", ").append(numFailed).append(" failed");
+        }
+        if (currentTest != null) {
+            status.append(", running ").append(currentTest).append(" (").append(formatMillis(currentMillis)).append(')');
+        }
+        status.append(", elapsed ").append(formatMillis(TimeUnit.NANOSECONDS.toMillis(now - startNanos)));
+        final long eta = getRemainingMillis(currentMillis);
+        if (eta >= 0) {
+            status.append(", ETA ").append(formatMillis(eta));
+        }
+        progressLogger.progress(status.toString());
+    }
+
+    private boolean isHung(@NotNull String name, long millis) {
+        if (millis >= hungMillis) {
+            return true;
+        }
+        final Double average = averages.get(name);
+        return average != null && millis >= MIN_HUNG_MILLIS && millis >= average * HUNG_FACTOR;
+    }
+
+    /**
+     * Estimates the remaining time from the average test duration in the history, or from the average duration of the
+     * completed tests if there is no history.
+     *
+     * @return remaining milliseconds or -1 if unknown
+     */
+    private long getRemainingMillis(long currentMillis) {
+        if (numTests <= 0) {
+            return -1;
+        }
+        final double perTest;
+        if (historyMillis >= 0) {
+            perTest = historyMillis;
+        } else if (numCompleted > 0) {
+            perTest = (double) completedMillis / numCompleted;
+        } else {
+            return -1;
+        }
+        return Math.max(0, (long) (perTest * Math.max(0, numTests - numCompleted)) - currentMillis);
+    }
+
+    @NotNull
+    private static String formatMillis(long millis) {
+        final long seconds = millis / 1000;
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+        if (seconds < 3600) {
+            return (seconds / 60) + "m " + (seconds % 60) + "s";
+        }
+        return (seconds / 3600) + "h " + (seconds / 60 % 60) + "m";
+    }
+}
@@ -0,0 +1,212 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.gradle.api.GradleException;
+import org.moe.gradle.anns.NotNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Splits test classes into shards of similar duration and merges the JUnit XML reports of the shards.
+ */
+public class TestShards {
+
+    private static final String[] COUNTERS = {"tests", "started", "failures", "errors", "ignored"};
+
+    private TestShards() {
+    }
+
+    /**
+     * Reads the test classes from a classlist.txt file.
+     */
+    @NotNull
+    public static List<String> readClassList(@NotNull File classList) {
+        return Arrays.stream(FileUtils.read(classList).split("\n"))
+                .map(String::trim)
+                .filter(it -> !it.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the duration of the test suites in seconds from the XML reports in the directory. Suites which appear in
+     * multiple reports get their average duration, unreadable reports are skipped.
+     */
+    @NotNull
+    public static Map<String, Double> readDurations(@NotNull File xmlDir) {
+        Require.nonNull(xmlDir);
+
+        final Map<String, double[]> sums = new HashMap<>();
+        final File[] reports = xmlDir.listFiles((dir, name) -> name.endsWith(".xml"));
+        if (reports != null) {
+            for (File report : reports) {
+                final NodeList suites;
+                try {
+                    suites = parse(report).getElementsByTagName("testsuite");
+                } catch (GradleException ignore) {
+                    continue;
+                }
+                for (int idx = 0; idx < suites.getLength(); ++idx) {
+                    final Element suite = (Element) suites.item(idx);
+                    try {
+                        final double time = Double.parseDouble(suite.getAttribute("time"));
+                        final double[] sum = sums.computeIfAbsent(suite.getAttribute("name"), k -> new double[2]);
+                        sum[0] += time;
+                        sum[1] += 1;
+                    } catch (NumberFormatException ignore) {
+                        // Skip suite
+                    }
+                }
+            }
+        }
+
+        final Map<String, Double> durations = new HashMap<>();
+        sums.forEach((name, sum) -> durations.put(name, sum[0] / sum[1]));
+        return durations;
+    }
+
+    /**
+     * Splits the classes into the specified number of shards with the longest processing time first heuristic: the
+     * classes are taken in decreasing order of duration and each is added to the shard with the smallest total.
+     * Classes without a known duration are weighted with the average duration of the known ones.
+     */
+    @NotNull
+    public static List<List<String>> split(@NotNull List<String> classes, int count,
+                                           @NotNull Map<String, Double> durations) {
+        Require.nonNull(classes);
+        Require.nonNull(durations);
+        Require.GE(count, 1, "count must be at least 1");
+
+        final double fallback = classes.stream()
+                .filter(durations::containsKey)
+                .mapToDouble(durations::get)
+                .average()
+                .orElse(1.0);
+        final List<String> sorted = new ArrayList<>(classes);
+        sorted.sort((a, b) -> Double.compare(durations.getOrDefault(b, fallback), durations.getOrDefault(a, fallback)));
+
+        final List<List<String>> shards = new ArrayList<>();
+        final double[] totals = new double[count];
+        for (int idx = 0; idx < count; ++idx) {
+            shards.add(new ArrayList<>());
+        }
+        for (String cls : sorted) {
+            int min = 0;
+            for (int idx = 1; idx < count; ++idx) {
+                if (totals[idx] < totals[min]) {
+                    min = idx;
+                }
+            }
+            shards.get(min).add(cls);
+            totals[min] += durations.getOrDefault(cls, fallback);
+        }
+        return shards;
+    }
+
+    /**
+     * Merges the test suites of the XML reports into a single report, summing up their counters. Fails if a test case
+     * appears in more than one report, the shards must not overlap.
+     */
+    public static void merge(@NotNull List<File> reports, @NotNull File out) {
+        Require.nonNull(reports);
+        Require.nonNull(out);
+
+        final Document merged = newDocumentBuilder().newDocument();
+        final Element root = merged.createElement("testrun");
+        merged.appendChild(root);
+
+        final int[] counters = new int[COUNTERS.length];
+        final Map<String, File> cases = new HashMap<>();
+        for (File report : reports) {
+            final Element run = parse(report).getDocumentElement();
+            final NodeList testcases = run.getElementsByTagName("testcase");
+            for (int idx = 0; idx < testcases.getLength(); ++idx) {
+                final Element testcase = (Element) testcases.item(idx);
+                final String name = testcase.getAttribute("classname") + "." + testcase.getAttribute("name");
+                final File previous = cases.put(name, report);
+                if (previous != null && !previous.equals(report)) {
+                    throw new GradleException("Test " + name + " ran in both " + previous.getName() + " and "
+                            + report.getName() + ", the test runner of the app does not support the 'shard' option");
+                }
+            }
+            for (int idx = 0; idx < COUNTERS.length; ++idx) {
+                try {
+                    counters[idx] += Integer.parseInt(run.getAttribute(COUNTERS[idx]));
+                } catch (NumberFormatException ignore) {
+                    // Missing counter
+                }
+            }
+            final NodeList suites = run.getElementsByTagName("testsuite");
+            for (int idx = 0; idx < suites.getLength(); ++idx) {
+                root.appendChild(merged.importNode(suites.item(idx), true));
+            }
+        }
+        for (int idx = 0; idx < COUNTERS.length; ++idx) {
+            root.setAttribute(COUNTERS[idx], Integer.toString(counters[idx]));
+        }
+
+        try {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(merged), new StreamResult(out));
+        } catch (TransformerException e) {
+            throw new GradleException("Failed to write " + out + ": " + e.getMessage(), e);
+        }
+    }
+
+    @NotNull
+    private static Document parse(@NotNull File report) {
+        try {
+            return newDocumentBuilder().parse(report);
+        } catch (SAXException | IOException e) {
+            throw new GradleException("Failed to read " + report + ": " + e.getMessage(), e);
+        }
+    }
+
+    @NotNull
+    private static DocumentBuilder newDocumentBuilder() {
+        try {
+            final DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            // Report parse errors through exceptions only, instead of also printing them to stderr
+            builder.setErrorHandler(new DefaultHandler());
+            return builder;
+        } catch (ParserConfigurationException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+    }
+}
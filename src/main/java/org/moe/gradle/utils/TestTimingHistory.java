@@ -0,0 +1,309 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.gradle.api.GradleException;
+import org.moe.gradle.anns.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps the test timings of the last runs and reports the slowest and regressed tests.
+ * <p>
+ * The history is a tab separated file with one line per test case and run: run (start time in milliseconds since
+ * epoch), target, class, method, millis and result. Per class durations are the sums of their methods.
+ */
+public class TestTimingHistory {
+
+    /**
+     * Test timing of a single test case.
+     */
+    public static class Timing {
+        @NotNull
+        public final String target;
+        @NotNull
+        public final String className;
+        @NotNull
+        public final String method;
+        public final long millis;
+        @NotNull
+        public final String result;
+
+        public Timing(@NotNull String target, @NotNull String className, @NotNull String method, long millis,
+                      @NotNull String result) {
+            this.target = Require.nonNull(target);
+            this.className = Require.nonNull(className);
+            this.method = Require.nonNull(method);
+            this.millis = millis;
+            this.result = Require.nonNull(result);
+        }
+
+        @NotNull
+        String getKey() {
+            return target + '\t' + className + '\t' + method;
+        }
+
+        boolean isOk() {
+            return "ok".equals(result);
+        }
+    }
+
+    /**
+     * Regressions shorter than this are considered noise.
+     */
+    private static final long MIN_REGRESSION_MILLIS = 50;
+
+    /**
+     * Number of tests and classes listed as slowest.
+     */
+    private static final int NUM_SLOWEST = 20;
+
+    @NotNull
+    private final File file;
+
+    private final int maxRuns;
+
+    /**
+     * Timings of the stored runs, ordered by run.
+     */
+    private final Map<Long, List<Timing>> runs = new LinkedHashMap<>();
+
+    /**
+     * Creates a new history backed by the specified file and loads it.
+     *
+     * @param file    history file
+     * @param maxRuns number of runs to keep
+     */
+    public TestTimingHistory(@NotNull File file, int maxRuns) {
+        this.file = Require.nonNull(file);
+        Require.GE(maxRuns, 1, "maxRuns must be positive");
+        this.maxRuns = maxRuns;
+        load();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new GradleException("Failed to read " + file, e);
+        }
+        final Map<Long, List<Timing>> loaded = new HashMap<>();
+        for (String line : lines) {
+            final String[] parts = line.split("\t");
+            if (parts.length != 6) {
+                continue;
+            }
+            try {
+                loaded.computeIfAbsent(Long.parseLong(parts[0]), k -> new ArrayList<>())
+                        .add(new Timing(parts[1], parts[2], parts[3], Long.parseLong(parts[4]), parts[5]));
+            } catch (NumberFormatException ignore) {
+                // Skip damaged lines
+            }
+        }
+        new TreeSet<>(loaded.keySet()).forEach(run -> runs.put(run, loaded.get(run)));
+    }
+
+    /**
+     * Reads a timings file written by {@link JUnitTestCollector}.
+     *
+     * @param target      name of the target the tests ran on
+     * @param timingsFile timings file
+     * @return timings of the test cases
+     */
+    @NotNull
+    public static List<Timing> readTimings(@NotNull String target, @NotNull File timingsFile) {
+        Require.nonNull(target);
+        Require.nonNull(timingsFile);
+
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(timingsFile.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new GradleException("Failed to read " + timingsFile, e);
+        }
+        final List<Timing> timings = new ArrayList<>();
+        for (String line : lines) {
+            final String[] parts = line.split("\t");
+            if (parts.length != 5 || line.equals(JUnitTestCollector.TIMINGS_HEADER)) {
+                continue;
+            }
+            try {
+                timings.add(new Timing(target, parts[0], parts[1], Long.parseLong(parts[2]), parts[4]));
+            } catch (NumberFormatException ignore) {
+                // Skip damaged lines
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Returns the average duration of the successful test cases in the stored runs, keyed by target, class and
+     * method.
+     */
+    @NotNull
+    Map<String, Double> getAverages() {
+        final Map<String, long[]> sums = new HashMap<>();
+        runs.values().forEach(timings -> timings.stream().filter(Timing::isOk).forEach(timing -> {
+            final long[] sum = sums.computeIfAbsent(timing.getKey(), k -> new long[2]);
+            sum[0] += timing.millis;
+            sum[1]++;
+        }));
+        final Map<String, Double> averages = new HashMap<>();
+        sums.forEach((key, sum) -> averages.put(key, (double) sum[0] / sum[1]));
+        return averages;
+    }
+
+    /**
+     * Returns the average duration of the successful test cases on a target in the stored runs, keyed by test name as
+     * reported by the test runner ({@code <class>-<method>}).
+     *
+     * @param target name of the target
+     * @return average durations in milliseconds
+     */
+    @NotNull
+    public Map<String, Double> getAverages(@NotNull String target) {
+        Require.nonNull(target);
+
+        final Map<String, Double> averages = new HashMap<>();
+        final String prefix = target + '\t';
+        getAverages().forEach((key, average) -> {
+            if (key.startsWith(prefix)) {
+                final String[] parts = key.split("\t");
+                averages.put(parts[1] + '-' + parts[2], average);
+            }
+        });
+        return averages;
+    }
+
+    /**
+     * Adds a run to the history, drops the oldest runs above the limit and saves the history.
+     *
+     * @param run     start time of the run
+     * @param timings timings of the run
+     */
+    public void add(long run, @NotNull List<Timing> timings) {
+        Require.nonNull(timings);
+
+        runs.put(run, timings);
+        final List<Long> order = new ArrayList<>(runs.keySet());
+        for (int idx = 0; idx < order.size() - maxRuns; ++idx) {
+            runs.remove(order.get(idx));
+        }
+
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new GradleException("Failed to create directory " + parent);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Long, List<Timing>> entry : runs.entrySet()) {
+                for (Timing timing : entry.getValue()) {
+                    writer.write(entry.getKey() + "\t" + timing.target + "\t" + timing.className + "\t" +
+                            timing.method + "\t" + timing.millis + "\t" + timing.result + "\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new GradleException("Failed to write " + file, e);
+        }
+    }
+
+    /**
+     * Returns the successful test cases of the run which are slower than their average in the history by more than
+     * the threshold. Must be called before the run is added.
+     *
+     * @param timings          timings of the run
+     * @param thresholdPercent threshold in percent
+     * @return regressed test cases with their average duration, slowest first
+     */
+    @NotNull
+    public Map<Timing, Double> getRegressions(@NotNull List<Timing> timings, double thresholdPercent) {
+        Require.nonNull(timings);
+
+        final Map<String, Double> averages = getAverages();
+        final List<Timing> regressed = new ArrayList<>();
+        for (Timing timing : timings) {
+            final Double average = averages.get(timing.getKey());
+            if (timing.isOk() && average != null && timing.millis - average >= MIN_REGRESSION_MILLIS
+                    && timing.millis > average * (1 + thresholdPercent / 100)) {
+                regressed.add(timing);
+            }
+        }
+        regressed.sort(Comparator.comparingLong((Timing timing) -> timing.millis).reversed());
+        final Map<Timing, Double> regressions = new LinkedHashMap<>();
+        regressed.forEach(timing -> regressions.put(timing, averages.get(timing.getKey())));
+        return regressions;
+    }
+
+    /**
+     * Creates a report of the slowest test cases and classes of a run and of its regressions.
+     *
+     * @param timings          timings of the run
+     * @param regressions      regressions returned by {@link #getRegressions(List, double)}
+     * @param thresholdPercent threshold the regressions were computed with
+     * @return report text
+     */
+    @NotNull
+    public static String createReport(@NotNull List<Timing> timings, @NotNull Map<Timing, Double> regressions,
+                                      double thresholdPercent) {
+        Require.nonNull(timings);
+        Require.nonNull(regressions);
+
+        final StringBuilder report = new StringBuilder();
+
+        report.append("Slowest tests:\n");
+        final List<Timing> slowest = new ArrayList<>(timings);
+        slowest.sort(Comparator.comparingLong((Timing timing) -> timing.millis).reversed());
+        for (Timing timing : slowest.subList(0, Math.min(NUM_SLOWEST, slowest.size()))) {
+            report.append(String.format("  %8d ms  %s-%s [%s]\n", timing.millis, timing.className, timing.method,
+                    timing.target));
+        }
+
+        report.append("\nSlowest classes:\n");
+        final Map<String, Long> classes = new HashMap<>();
+        timings.forEach(timing -> classes.merge(timing.className + " [" + timing.target + "]", timing.millis,
+                Long::sum));
+        final List<Map.Entry<String, Long>> classList = new ArrayList<>(classes.entrySet());
+        classList.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        for (Map.Entry<String, Long> entry : classList.subList(0, Math.min(NUM_SLOWEST, classList.size()))) {
+            report.append(String.format("  %8d ms  %s\n", entry.getValue(), entry.getKey()));
+        }
+
+        report.append("\nTests slower than their average by more than ").append(thresholdPercent).append("%:\n");
+        if (regressions.isEmpty()) {
+            report.append("  none\n");
+        }
+        regressions.forEach((timing, average) -> report.append(String.format("  %8d ms  (average %.0f ms, +%.0f%%)  %s-%s [%s]\n",
+                timing.millis, average, (timing.millis / Math.max(average, 1) - 1) * 100, timing.className, timing.method,
+                timing.target)));
+        return report.toString();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.moe.document.pbxproj.PBXNativeTarget;
+import org.moe.document.pbxproj.PBXObject;
+import org.moe.document.pbxproj.PBXObjectRef;
+import org.moe.document.pbxproj.PBXProject;
+import org.moe.document.pbxproj.ProjectException;
+import org.moe.document.pbxproj.ProjectFile;
+import org.moe.document.pbxproj.XCBuildConfiguration;
+import org.moe.document.pbxproj.XCConfigurationList;
+import org.moe.generator.project.writer.XcodeEditor;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.anns.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches parsed Xcode projects for the duration of a build. Entries are validated against the size and modification
+ * time of the project.pbxproj file, so changes made by other tools are picked up on the next access.
+ * <p>
+ * The parsed projects are shared, the {@link ProjectFile} itself is not exposed and the objects returned by
+ * {@link ParsedProject} must be treated as read-only. Tasks modifying the project parse their own copy and
+ * {@link #invalidate(File)} it after saving, the size and modification time alone could miss a save within the
+ * timestamp resolution.
+ */
+public class XcodeProjectCache {
+
+    @NotNull
+    private final Map<File, CacheEntry> entries = new HashMap<>();
+
+    /**
+     * Returns the parsed project of the .xcodeproj directory.
+     */
+    @NotNull
+    public synchronized ParsedProject get(@NotNull File xcodeproj) throws ProjectException, IOException {
+        final CacheEntry entry = getEntry(xcodeproj);
+        if (entry.project == null) {
+            entry.project = new ParsedProject(new ProjectFile(xcodeproj));
+        }
+        return entry.project;
+    }
+
+    /**
+     * Returns whether the MOE settings of the project are up-to-date, see {@link XcodeEditor#isUpToDate()}.
+     */
+    public synchronized boolean isUpToDate(@NotNull File xcodeproj) throws ProjectException, IOException {
+        final CacheEntry entry = getEntry(xcodeproj);
+        if (entry.upToDate == null) {
+            entry.upToDate = new XcodeEditor(xcodeproj).isUpToDate();
+        }
+        return entry.upToDate;
+    }
+
+    public synchronized void invalidate(@NotNull File xcodeproj) {
+        entries.remove(Require.nonNull(xcodeproj).getAbsoluteFile());
+    }
+
+    @NotNull
+    private CacheEntry getEntry(@NotNull File xcodeproj) {
+        final File key = Require.nonNull(xcodeproj).getAbsoluteFile();
+        final File pbxproj = new File(key, "project.pbxproj");
+        final long length = pbxproj.length();
+        final long lastModified = pbxproj.lastModified();
+
+        CacheEntry entry = entries.get(key);
+        if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+            entry = new CacheEntry(length, lastModified);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static class CacheEntry {
+        private final long length;
+
+        private final long lastModified;
+
+        @Nullable
+        private ParsedProject project;
+
+        @Nullable
+        private Boolean upToDate;
+
+        private CacheEntry(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * A parsed project with its native targets and build configurations indexed by name.
+     */
+    public static class ParsedProject {
+
+        @Nullable
+        private final String projectDirPath;
+
+        @NotNull
+        private final Map<String, PBXObjectRef<PBXNativeTarget>> targets = new HashMap<>();
+
+        @NotNull
+        private final Map<String, Map<String, XCBuildConfiguration>> targetConfigurations = new HashMap<>();
+
+        @NotNull
+        private final Map<String, XCBuildConfiguration> projectConfigurations;
+
+        @SuppressWarnings("unchecked")
+        private ParsedProject(@NotNull ProjectFile projectFile) {
+            Require.nonNull(projectFile);
+
+            for (Map.Entry<PBXObjectRef<? extends PBXObject>, PBXObject> entry : projectFile.getRoot().getObjects().entrySet()) {
+                if (!(entry.getValue() instanceof PBXNativeTarget)) {
+                    continue;
+                }
+                final PBXNativeTarget target = (PBXNativeTarget) entry.getValue();
+                if (targets.containsKey(target.getName())) {
+                    continue;
+                }
+                targets.put(target.getName(), (PBXObjectRef<PBXNativeTarget>) entry.getKey());
+                targetConfigurations.put(target.getName(),
+                        indexConfigurations(target.getBuildConfigurationList().getReferenced()));
+            }
+            final PBXProject project = projectFile.getRoot().getRootObject().getReferenced();
+            projectDirPath = project.getProjectDirPath();
+            projectConfigurations = indexConfigurations(project.getBuildConfigurationList().getReferenced());
+        }
+
+        @NotNull
+        private static Map<String, XCBuildConfiguration> indexConfigurations(@NotNull XCConfigurationList list) {
+            final Map<String, XCBuildConfiguration> configurations = new HashMap<>();
+            for (PBXObjectRef<XCBuildConfiguration> ref : list.getOrCreateBuildConfigurations()) {
+                final XCBuildConfiguration configuration = ref.getReferenced();
+                configurations.putIfAbsent(configuration.getName(), configuration);
+            }
+            return Collections.unmodifiableMap(configurations);
+        }
+
+        /**
+         * Returns the projectDirPath of the project object, or null if it is not set.
+         */
+        @Nullable
+        public String getProjectDirPath() {
+            return projectDirPath;
+        }
+
+        /**
+         * Returns the reference to the native target with the specified name, or null if there is no such target.
+         */
+        @Nullable
+        public PBXObjectRef<PBXNativeTarget> getTargetRef(@NotNull String name) {
+            return targets.get(Require.nonNull(name));
+        }
+
+        /**
+         * Returns the build configurations of the native target by name, or null if there is no such target.
+         */
+        @Nullable
+        public Map<String, XCBuildConfiguration> getTargetConfigurations(@NotNull String target) {
+            return targetConfigurations.get(Require.nonNull(target));
+        }
+
+        /**
+         * Returns the project level build configurations by name.
+         */
+        @NotNull
+        public Map<String, XCBuildConfiguration> getProjectConfigurations() {
+            return projectConfigurations;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.file.nativefs.NativeFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.moe.gradle.anns.NotNull;
+import org.moe.gradle.options.RemoteBuildOptions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * SSH and SFTP server on localhost, standing in for a remote macOS build server in tests.
+ * <p>
+ * Commands run with {@code /bin/sh} on the local machine. The macOS specific commands used by the plugin
+ * ({@code md5}, {@code arch} and {@code sysctl}) are emulated by shell scripts placed in front of {@code PATH}, and
+ * {@code $HOME} and {@code $TMPDIR} point to temporary directories. {@code unzip}, {@code tar}, {@code mktemp} and
+ * {@code md5sum} are not emulated, they are taken from the host. The plugin only uses flags which behave the same on
+ * Linux and macOS, and tests are skipped on hosts without these tools.
+ */
+class LocalSshServer implements Closeable {
+
+    private static final String USER = "moe";
+
+    private static final String PASSWORD = "moe";
+
+    private static final String MD5_SHIM = "" +
+            "#!/bin/sh\n" +
+            "if [ \"$1\" = \"-q\" ]; then\n" +
+            "  shift\n" +
+            "  for f in \"$@\"; do out=$(md5sum \"$f\") || exit 1; echo \"${out%% *}\"; done\n" +
+            "elif [ \"$1\" = \"-r\" ]; then\n" +
+            "  shift\n" +
+            "  md5sum \"$@\" | sed 's/^\\([0-9a-f]*\\) [ *]/\\1 /'\n" +
+            "else\n" +
+            "  for f in \"$@\"; do out=$(md5sum \"$f\") || exit 1; echo \"MD5 ($f) = ${out%% *}\"; done\n" +
+            "fi\n";
+
+    private static final String ARCH_SHIM = "" +
+            "#!/bin/sh\n" +
+            "if [ $# -eq 0 ]; then echo x86_64; exit 0; fi\n" +
+            "while [ $# -gt 0 ]; do case \"$1\" in -*) shift ;; *) exec \"$@\" ;; esac; done\n";
+
+    private static final String SYSCTL_SHIM = "" +
+            "#!/bin/sh\n" +
+            "[ \"$1\" = \"-n\" ] && shift\n" +
+            "for key in \"$@\"; do\n" +
+            "  case \"$key\" in\n" +
+            "    hw.ncpu) getconf _NPROCESSORS_ONLN ;;\n" +
+            "    vm.loadavg) set -- $(cat /proc/loadavg); echo \"{ $1 $2 $3 }\" ;;\n" +
+            "    *) echo \"sysctl: unknown oid '$key'\" >&2; exit 1 ;;\n" +
+            "  esac\n" +
+            "done\n";
+
+    @NotNull
+    private final File home;
+
+    @NotNull
+    private final File shims;
+
+    @NotNull
+    private final File tmp;
+
+    @NotNull
+    private final SshServer sshd;
+
+    LocalSshServer(@NotNull File root) throws IOException {
+        assumeTrue("tests need a POSIX shell", new File("/bin/sh").canExecute());
+        for (String tool : Arrays.asList("unzip", "tar", "mktemp", "md5sum")) {
+            assumeTrue("tests need '" + tool + "'", isOnPath(tool));
+        }
+
+        home = new File(root, "home");
+        shims = new File(root, "shims");
+        tmp = new File(root, "tmp");
+        if (!home.mkdirs() || !shims.mkdirs() || !tmp.mkdirs()) {
+            throw new IOException("Failed to create server directories in " + root);
+        }
+        writeShim("md5", MD5_SHIM);
+        writeShim("arch", ARCH_SHIM);
+        writeShim("sysctl", SYSCTL_SHIM);
+
+        final SimpleGeneratorHostKeyProvider hostKeys = new SimpleGeneratorHostKeyProvider(
+                new File(root, "hostkey.ser").toPath());
+        hostKeys.setAlgorithm(KeyUtils.RSA_ALGORITHM);
+
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("localhost");
+        sshd.setPort(0);
+        sshd.setKeyPairProvider(hostKeys);
+        sshd.setPasswordAuthenticator((user, password, session) -> USER.equals(user) && PASSWORD.equals(password));
+        sshd.setFileSystemFactory(NativeFileSystemFactory.INSTANCE);
+        sshd.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        sshd.setCommandFactory((channel, command) ->
+                new ProcessShellFactory(command, "/bin/sh", "-c", getEnvironment() + command).createShell(channel));
+        sshd.start();
+    }
+
+    @NotNull
+    private String getEnvironment() {
+        return "HOME='" + home.getAbsolutePath() + "'; TMPDIR='" + tmp.getAbsolutePath() + "'; " +
+                "PATH='" + shims.getAbsolutePath() + "':\"$PATH\"; export HOME TMPDIR PATH; cd \"$HOME\" || exit 1; ";
+    }
+
+    private void writeShim(@NotNull String name, @NotNull String script) throws IOException {
+        final File file = new File(shims, name);
+        Files.write(file.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        if (!file.setExecutable(true)) {
+            throw new IOException("Failed to make " + file + " executable");
+        }
+    }
+
+    /**
+     * Replaces a command with one which always fails, so the fallback paths of the plugin can be tested.
+     */
+    void breakCommand(@NotNull String name) throws IOException {
+        writeShim(name, "#!/bin/sh\nexit 1\n");
+    }
+
+    private static boolean isOnPath(@NotNull String tool) {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            if (new File(dir, tool).canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    File getHome() {
+        return home;
+    }
+
+    int getPort() {
+        return sshd.getPort();
+    }
+
+    /**
+     * Returns a connected server with default remote build options.
+     */
+    @NotNull
+    Server connect() throws JSchException {
+        return connect(new RemoteBuildOptions());
+    }
+
+    @NotNull
+    Server connect(@NotNull RemoteBuildOptions options) throws JSchException {
+        final Session session = new JSch().getSession(USER, "localhost", getPort());
+        session.setPassword(PASSWORD);
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.connect();
+        return new Server(session, new ServerHost(USER, "localhost", getPort()), options);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sshd.stop(true);
+    }
+}
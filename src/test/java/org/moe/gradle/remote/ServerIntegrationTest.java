@@ -0,0 +1,359 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.GradleException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.moe.gradle.remote.file.FileList;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ServerIntegrationTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private LocalSshServer sshServer;
+
+    private Server server;
+
+    @Before
+    public void setUp() throws Exception {
+        sshServer = new LocalSshServer(tempDir.newFolder("server"));
+        server = sshServer.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.session.disconnect();
+        }
+        if (sshServer != null) {
+            sshServer.close();
+        }
+    }
+
+    @Test
+    public void testExec() {
+        assertEquals("hello", server.exec("echo", "echo hello").trim());
+        assertEquals(sshServer.getHome().getAbsolutePath(), server.exec("home", "echo $HOME").trim());
+        assertEquals("x86_64", server.exec("arch", "arch").trim());
+    }
+
+    @Test(expected = GradleException.class)
+    public void testExecFailure() {
+        server.exec("fail", "exit 3");
+    }
+
+    @Test
+    public void testProbe() {
+        final ServerHealth health = server.probe(5000);
+        assertTrue(health.toString(), health.isReachable());
+        assertTrue(health.getCpuCount() > 0);
+        assertTrue(health.getFreeDiskKB() > 0);
+    }
+
+    @Test
+    public void testPreflight() throws IOException {
+        final File existing = new File(sshServer.getHome(), "existing");
+        assertTrue(existing.createNewFile());
+        final File dir = new File(sshServer.getHome(), "a/b/c");
+
+        final ServerPreflight preflight = new ServerPreflight()
+                .requireFile(existing.getAbsolutePath())
+                .requireFile(new File(sshServer.getHome(), "it's missing").getAbsolutePath())
+                .mkdirs(dir.getAbsolutePath());
+        final ServerPreflight.Result result = server.preflight(preflight);
+        assertFalse(result.isPassed());
+        assertEquals(ServerPreflight.Status.OK, result.getResults().get(existing.getAbsolutePath()));
+        assertEquals(ServerPreflight.Status.MISSING,
+                result.getResults().get(new File(sshServer.getHome(), "it's missing").getAbsolutePath()));
+        assertTrue(dir.isDirectory());
+
+        try {
+            server.exec("guarded", preflight, "touch ran");
+            fail("preflight should have failed");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("it's missing"));
+        }
+        assertFalse(new File(sshServer.getHome(), "ran").exists());
+
+        server.exec("guarded", new ServerPreflight().requireFile(existing.getAbsolutePath()), "touch ran");
+        assertTrue(new File(sshServer.getHome(), "ran").exists());
+    }
+
+    @Test
+    public void testUpload() throws IOException {
+        final File local = tempDir.newFolder("local");
+        final File tree = new File(local, "tree");
+        writeFile(new File(tree, "a.txt"), 100);
+        writeFile(new File(tree, "sub/b.bin"), 300 * 1024);
+        writeFile(new File(tree, "sub/image.png"), 1024);
+        final File script = writeFile(new File(tree, "sub/deeper/run.sh"), 10);
+        assertTrue(script.setExecutable(true));
+
+        final File remote = new File(sshServer.getHome(), "upload");
+        final FileList list = new FileList(local, URI.create("file://" + remote.getAbsolutePath()));
+        list.add(tree);
+        server.upload("tree", list);
+
+        assertTreeEquals(tree, new File(remote, "tree"));
+        assertTrue(new File(remote, "tree/sub/deeper/run.sh").canExecute());
+        assertFalse(new File(remote, "tree/a.txt").canExecute());
+        assertTrue(server.checkFileMD5(new File(remote, "tree/sub/b.bin").getAbsolutePath(),
+                new File(tree, "sub/b.bin")));
+        assertFalse(server.checkFileMD5(new File(remote, "tree/sub/b.bin").getAbsolutePath(),
+                new File(tree, "a.txt")));
+        assertFalse(server.checkFileMD5(new File(remote, "missing").getAbsolutePath(), new File(tree, "a.txt")));
+    }
+
+    @Test
+    public void testRemoveDeletedFiles() throws IOException {
+        final File local = tempDir.newFolder("local");
+        final File tree = new File(local, "tree");
+        final File kept = writeFile(new File(tree, "kept.txt"), 100);
+        final File renamed = writeFile(new File(tree, "sub/old.txt"), 100);
+        final File excluded = writeFile(new File(tree, "excluded.txt"), 100);
+
+        final File remote = new File(sshServer.getHome(), "workspace");
+        final URI target = URI.create("file://" + remote.getAbsolutePath());
+        FileList list = new FileList(local, target);
+        list.add(tree);
+        server.upload("tree", list);
+        server.removeDeletedFilesFromWorkspace(list);
+        final File product = writeFile(new File(remote, "tree/build/product.bin"), 10);
+
+        assertTrue(renamed.renameTo(new File(tree, "sub/new.txt")));
+        list = new FileList(local, target);
+        list.add(tree, Collections.singleton(excluded));
+        server.upload("tree", list);
+        server.removeDeletedFilesFromWorkspace(list);
+
+        assertTrue(new File(remote, "tree/" + kept.getName()).exists());
+        assertTrue(new File(remote, "tree/sub/new.txt").exists());
+        assertFalse(new File(remote, "tree/sub/old.txt").exists());
+        // Files which still exist locally or were never uploaded are kept
+        assertTrue(new File(remote, "tree/excluded.txt").exists());
+        assertTrue(product.exists());
+    }
+
+    @Test
+    public void testBackgroundUpload() throws IOException {
+        final File local = tempDir.newFolder("local");
+        final File tree = new File(local, "tree");
+        writeFile(new File(tree, "a.txt"), 100);
+        writeFile(new File(tree, "sub/b.bin"), 300 * 1024);
+
+        final File remote = new File(sshServer.getHome(), "upload");
+        final URI target = URI.create("file://" + remote.getAbsolutePath());
+        server.uploadInBackground("tree", () -> {
+            final FileList list = new FileList(local, target);
+            list.add(tree);
+            return list;
+        });
+        server.awaitBackgroundUpload();
+        assertTreeEquals(tree, new File(remote, "tree"));
+
+        // Unchanged files are not transferred again, so a removed remote copy stays removed
+        assertTrue(new File(remote, "tree/a.txt").delete());
+        writeFile(new File(tree, "sub/b.bin"), 200 * 1024);
+        writeFile(new File(tree, "sub/c.txt"), 10);
+
+        final FileList list = new FileList(local, target);
+        list.add(tree);
+        server.upload("tree", list);
+
+        assertFalse(new File(remote, "tree/a.txt").exists());
+        assertTrue(server.checkFileMD5(new File(remote, "tree/sub/b.bin").getAbsolutePath(),
+                new File(tree, "sub/b.bin")));
+        assertTrue(new File(remote, "tree/sub/c.txt").exists());
+    }
+
+    @Test
+    public void testUploadSameFileToTwoTargets() throws IOException {
+        final File local = tempDir.newFolder("local");
+        final File tree = new File(local, "tree");
+        writeFile(new File(tree, "a.txt"), 100);
+
+        for (String name : new String[]{"first", "second"}) {
+            final File remote = new File(sshServer.getHome(), name);
+            final FileList list = new FileList(local, URI.create("file://" + remote.getAbsolutePath()));
+            list.add(tree);
+            server.upload(name, list);
+            assertTreeEquals(tree, new File(remote, "tree"));
+        }
+    }
+
+    @Test
+    public void testUploadDoesNotWaitForUnrelatedBackgroundUpload() throws Exception {
+        final File local = tempDir.newFolder("local");
+        final File background = new File(local, "background");
+        writeFile(new File(background, "a.txt"), 100);
+        final File foreground = new File(local, "foreground");
+        writeFile(new File(foreground, "b.txt"), 100);
+
+        final URI target = URI.create("file://" + new File(sshServer.getHome(), "upload").getAbsolutePath());
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean listed = new AtomicBoolean();
+        server.uploadInBackground("background", () -> {
+            try {
+                release.await(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            listed.set(true);
+            final FileList list = new FileList(local, target);
+            list.add(background);
+            return list;
+        });
+
+        final FileList list = new FileList(local, target);
+        list.add(foreground);
+        server.upload("foreground", list);
+        assertFalse("upload waited for the background upload", listed.get());
+        assertTreeEquals(foreground, new File(sshServer.getHome(), "upload/foreground"));
+
+        release.countDown();
+        server.awaitBackgroundUpload();
+        assertTreeEquals(background, new File(sshServer.getHome(), "upload/background"));
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        final File remote = new File(sshServer.getHome(), "products/App.app");
+        writeFile(new File(remote, "Info.plist"), 200);
+        writeFile(new File(remote, "Frameworks/lib.dylib"), 100 * 1024);
+        final File binary = writeFile(new File(remote, "App"), 50 * 1024);
+        assertTrue(binary.setExecutable(true));
+
+        final File local = tempDir.newFolder("download");
+        server.downloadDirectory("app", remote.getAbsolutePath(), local);
+        assertTreeEquals(remote, new File(local, "App.app"));
+        assertTrue(new File(local, "App.app/App").canExecute());
+
+        // Second download only replaces changed files
+        writeFile(new File(remote, "Info.plist"), 300);
+        server.downloadDirectory("app", remote.getAbsolutePath(), local);
+        assertTreeEquals(remote, new File(local, "App.app"));
+
+        server.downloadFile("plist", new File(remote, "Info.plist").getAbsolutePath(), local);
+        assertTrue(FileUtils.contentEquals(new File(remote, "Info.plist"), new File(local, "Info.plist")));
+    }
+
+    @Test
+    public void testIncrementalDownload() throws IOException {
+        final File remote = new File(sshServer.getHome(), "products/App.app");
+        writeFile(new File(remote, "Info.plist"), 200);
+        writeFile(new File(remote, "App"), 50 * 1024);
+        writeFile(new File(remote, "Stale"), 10);
+        writeFile(new File(remote, "App.dSYM/Contents/DWARF/App"), 100 * 1024);
+
+        final File local = tempDir.newFolder("download");
+        final File localApp = new File(local, "App.app");
+        server.downloadDirectory("app", remote.getAbsolutePath(), local, Collections.singletonList("*.dSYM"));
+        assertTrue(new File(localApp, "Stale").exists());
+        assertFalse(new File(localApp, "App.dSYM").exists());
+
+        // Files which are not downloaded again keep their local timestamp
+        final File localBinary = new File(localApp, "App");
+        assertTrue(localBinary.setLastModified(1000000000000L));
+        writeFile(new File(remote, "Info.plist"), 300);
+        assertTrue(new File(remote, "Stale").delete());
+        final File localSymbols = writeFile(new File(localApp, "Local.dSYM/Contents/Info.plist"), 10);
+
+        server.downloadDirectory("app", remote.getAbsolutePath(), local, Collections.singletonList("*.dSYM"));
+        assertTrue(FileUtils.contentEquals(new File(remote, "Info.plist"), new File(localApp, "Info.plist")));
+        assertEquals(1000000000000L, localBinary.lastModified());
+        assertFalse(new File(localApp, "Stale").exists());
+        assertTrue(localSymbols.exists());
+
+        server.downloadDirectory("app", remote.getAbsolutePath(), local);
+        assertTreeEquals(remote, localApp);
+    }
+
+    @Test
+    public void testDownloadWithoutRemoteListing() throws IOException {
+        sshServer.breakCommand("md5");
+
+        final File remote = new File(sshServer.getHome(), "products/App.app");
+        writeFile(new File(remote, "Info.plist"), 200);
+        writeFile(new File(remote, "App"), 50 * 1024);
+        writeFile(new File(remote, "Stale"), 10);
+
+        final File local = tempDir.newFolder("download");
+        final File localApp = new File(local, "App.app");
+        server.downloadDirectory("app", remote.getAbsolutePath(), local);
+        assertTreeEquals(remote, localApp);
+
+        // Unchanged files are kept, stale files are removed even without the remote hashes
+        final File localBinary = new File(localApp, "App");
+        assertTrue(localBinary.setLastModified(1000000000000L));
+        writeFile(new File(remote, "Info.plist"), 300);
+        assertTrue(new File(remote, "Stale").delete());
+
+        server.downloadDirectory("app", remote.getAbsolutePath(), local);
+        assertTreeEquals(remote, localApp);
+        assertEquals(1000000000000L, localBinary.lastModified());
+        assertFalse(new File(localApp, "Stale").exists());
+
+        // Excluded directories are not transferred either
+        writeFile(new File(remote, "App.dSYM/Contents/DWARF/App"), 100 * 1024);
+        server.downloadDirectory("app", remote.getAbsolutePath(), local, Collections.singletonList("*.dSYM"));
+        assertFalse(new File(localApp, "App.dSYM").exists());
+        assertTrue(localBinary.exists());
+    }
+
+    static File writeFile(File file, int size) throws IOException {
+        final File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        final byte[] data = new byte[size];
+        new Random(file.getName().hashCode() + size).nextBytes(data);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    static void assertTreeEquals(File expected, File actual) throws IOException {
+        assertTrue(actual + " is missing", actual.exists());
+        if (expected.isDirectory()) {
+            assertTrue(actual + " is not a directory", actual.isDirectory());
+            final String[] children = expected.list();
+            assertNotNull(children);
+            for (String child : children) {
+                assertTreeEquals(new File(expected, child), new File(actual, child));
+            }
+        } else {
+            assertTrue(actual + " differs", FileUtils.contentEquals(expected, actual));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.gradle.api.GradleException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ServerPoolTest {
+
+    private static final String PROJECT = "/work/app";
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final List<LocalSshServer> sshServers = new ArrayList<>();
+
+    private final List<Server> servers = new ArrayList<>();
+
+    private void startServers(int count) throws Exception {
+        for (int idx = 0; idx < count; idx++) {
+            final LocalSshServer sshServer = new LocalSshServer(tempDir.newFolder("server" + idx));
+            sshServers.add(sshServer);
+            servers.add(sshServer.connect());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Server server : servers) {
+            server.session.disconnect();
+        }
+        for (LocalSshServer sshServer : sshServers) {
+            sshServer.close();
+        }
+    }
+
+    private ServerPool createPool(String scheduler) {
+        return new ServerPool(null, scheduler, PROJECT, server -> server.exec("prepare", "true"), servers);
+    }
+
+    @Test
+    public void testStickyAssignment() throws Exception {
+        startServers(3);
+
+        final ServerPool pool = createPool(ServerSettings.SCHEDULER_STICKY);
+        final List<Server> assigned = new ArrayList<>();
+        for (int idx = 0; idx < 12; idx++) {
+            assigned.add(pool.acquire("key" + idx));
+        }
+        assertTrue("keys should be spread over the servers", new HashSet<>(assigned).size() > 1);
+        for (int idx = 0; idx < 12; idx++) {
+            assertSame(assigned.get(idx), pool.acquire("key" + idx));
+        }
+
+        // The next build maps the keys to the same servers
+        final ServerPool next = createPool(ServerSettings.SCHEDULER_STICKY);
+        for (int idx = 11; idx >= 0; idx--) {
+            assertSame(assigned.get(idx), next.acquire("key" + idx));
+        }
+        assertSame(next.acquire(ServerPool.AFFINITY_XCODE), next.getDefaultServer());
+    }
+
+    @Test
+    public void testStickyAssignmentSkipsUnhealthyServers() throws Exception {
+        startServers(3);
+
+        final List<Server> assigned = new ArrayList<>();
+        final ServerPool pool = createPool(ServerSettings.SCHEDULER_STICKY);
+        for (int idx = 0; idx < 12; idx++) {
+            assigned.add(pool.acquire("key" + idx));
+        }
+
+        final Server down = assigned.get(0);
+        sshServers.get(servers.indexOf(down)).close();
+
+        final ServerPool next = createPool(ServerSettings.SCHEDULER_STICKY);
+        for (ServerHealth health : next.probe()) {
+            assertEquals(health.toString(), !health.getHost().equals(down.getHost()), health.isHealthy());
+        }
+        for (int idx = 0; idx < 12; idx++) {
+            final Server server = next.acquire("key" + idx);
+            assertNotSame(down, server);
+            if (assigned.get(idx) != down) {
+                assertSame("only keys of the unavailable server move", assigned.get(idx), server);
+            }
+        }
+    }
+
+    @Test
+    public void testLeastLoadedAssignment() throws Exception {
+        startServers(2);
+
+        final ServerPool pool = createPool(ServerSettings.SCHEDULER_LEAST_LOADED);
+        final Server first = pool.acquire("a");
+        final Server second = pool.acquire("b");
+        assertNotSame(first, second);
+        assertSame(first, pool.acquire("a"));
+        assertSame(second, pool.acquire("b"));
+
+        final Set<Server> next = new HashSet<>();
+        next.add(pool.acquire("c"));
+        next.add(pool.acquire("d"));
+        assertEquals(2, next.size());
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        startServers(2);
+
+        final ServerPool pool = createPool(ServerSettings.SCHEDULER_LEAST_LOADED);
+        final Server primary = pool.acquire(ServerPool.AFFINITY_XCODE);
+        sshServers.get(servers.indexOf(primary)).close();
+
+        final List<Server> ran = new ArrayList<>();
+        pool.runWithFailover(ServerPool.AFFINITY_XCODE, server -> {
+            server.exec("build", "true");
+            ran.add(server);
+        });
+        assertEquals(1, ran.size());
+        assertNotSame(primary, ran.get(0));
+        assertSame(ran.get(0), pool.acquire(ServerPool.AFFINITY_XCODE));
+    }
+
+    @Test
+    public void testFailoverSkipsDeadReplacement() throws Exception {
+        startServers(3);
+
+        // Least-loaded assigns the first server, then the second one as the replacement
+        final ServerPool pool = createPool(ServerSettings.SCHEDULER_LEAST_LOADED);
+        assertSame(servers.get(0), pool.acquire(ServerPool.AFFINITY_XCODE));
+        sshServers.get(0).close();
+        sshServers.get(1).close();
+
+        final List<Server> ran = new ArrayList<>();
+        pool.runWithFailover(ServerPool.AFFINITY_XCODE, server -> {
+            server.exec("build", "true");
+            ran.add(server);
+        });
+        assertEquals(1, ran.size());
+        assertSame(servers.get(2), ran.get(0));
+    }
+
+    @Test
+    public void testFailoverWithoutServers() throws Exception {
+        startServers(2);
+
+        final ServerPool pool = createPool(ServerSettings.SCHEDULER_LEAST_LOADED);
+        for (LocalSshServer sshServer : sshServers) {
+            sshServer.close();
+        }
+        try {
+            pool.runWithFailover(ServerPool.AFFINITY_XCODE, server -> server.exec("build", "true"));
+            fail("build should have failed");
+        } catch (GradleException e) {
+            assertEquals("None of the remote build servers are available", e.getMessage());
+        }
+    }
+}
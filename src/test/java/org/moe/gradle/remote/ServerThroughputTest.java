@@ -0,0 +1,140 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.moe.gradle.options.RemoteBuildOptions;
+import org.moe.gradle.remote.file.FileList;
+
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assume.assumeTrue;
+import static org.moe.gradle.remote.ServerIntegrationTest.assertTreeEquals;
+import static org.moe.gradle.remote.ServerIntegrationTest.writeFile;
+
+/**
+ * Measures the upload and download throughput over the local SSH server. The numbers only show the overhead of the
+ * transfer code paths, the network is not part of the measurement.
+ * <p>
+ * The benchmark transfers about 48 MB, it only runs when requested with {@code -Pmoe.benchmark}.
+ */
+public class ServerThroughputTest {
+
+    private static final String MOE_BENCHMARK = "moe.benchmark";
+
+    private static final int NUM_DIRECTORIES = 20;
+    private static final int NUM_FILES_PER_DIRECTORY = 100;
+    private static final int SMALL_FILE_SIZE = 8 * 1024;
+    private static final int NUM_LARGE_FILES = 4;
+    private static final int LARGE_FILE_SIZE = 8 * 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private LocalSshServer sshServer;
+
+    private File tree;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("benchmarks are not enabled", Boolean.getBoolean(MOE_BENCHMARK));
+        sshServer = new LocalSshServer(tempDir.newFolder("server"));
+
+        tree = new File(tempDir.newFolder("local"), "tree");
+        for (int d = 0; d < NUM_DIRECTORIES; d++) {
+            for (int f = 0; f < NUM_FILES_PER_DIRECTORY; f++) {
+                writeFile(new File(tree, "dir" + d + "/file" + f), SMALL_FILE_SIZE);
+            }
+        }
+        for (int f = 0; f < NUM_LARGE_FILES; f++) {
+            writeFile(new File(tree, "large/file" + f + ".bin"), LARGE_FILE_SIZE);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sshServer != null) {
+            sshServer.close();
+        }
+    }
+
+    @Test
+    public void testUploadThroughput() throws Exception {
+        measureUpload("default compression", new RemoteBuildOptions());
+
+        final RemoteBuildOptions stored = new RemoteBuildOptions();
+        stored.setCompressionLevel(0);
+        measureUpload("no compression", stored);
+
+        final RemoteBuildOptions singleThreaded = new RemoteBuildOptions();
+        singleThreaded.setCompressionThreads(1);
+        measureUpload("single compression thread", singleThreaded);
+    }
+
+    private void measureUpload(String name, RemoteBuildOptions options) throws Exception {
+        final Server server = sshServer.connect(options);
+        try {
+            final File remote = new File(sshServer.getHome(), "upload-" + System.nanoTime());
+            final FileList list = new FileList(tree.getParentFile(), URI.create("file://" + remote.getAbsolutePath()));
+            list.add(tree);
+
+            final long start = System.nanoTime();
+            server.upload(name, list);
+            final long elapsed = System.nanoTime() - start;
+
+            assertTreeEquals(tree, new File(remote, "tree"));
+            report("upload, " + name, elapsed);
+        } finally {
+            server.session.disconnect();
+        }
+    }
+
+    @Test
+    public void testDownloadThroughput() throws Exception {
+        final Server server = sshServer.connect();
+        try {
+            final File local = tempDir.newFolder("download");
+
+            long start = System.nanoTime();
+            server.downloadDirectory("tree", tree.getAbsolutePath(), local);
+            report("download, full", System.nanoTime() - start);
+            assertTreeEquals(tree, new File(local, "tree"));
+
+            start = System.nanoTime();
+            server.downloadDirectory("tree", tree.getAbsolutePath(), local);
+            report("download, up-to-date", System.nanoTime() - start);
+            assertTreeEquals(tree, new File(local, "tree"));
+        } finally {
+            server.session.disconnect();
+        }
+    }
+
+    private void report(String name, long elapsedNanos) {
+        final long size = FileUtils.sizeOfDirectory(tree);
+        final double seconds = elapsedNanos / 1000000000.0;
+        System.out.printf("%s: %d files, %.1f MB in %d ms (%.1f MB/s)%n", name,
+                NUM_DIRECTORIES * NUM_FILES_PER_DIRECTORY + NUM_LARGE_FILES, size / (1024.0 * 1024.0),
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), size / (1024.0 * 1024.0) / seconds);
+    }
+}
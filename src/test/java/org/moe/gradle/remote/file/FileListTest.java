@@ -0,0 +1,76 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.remote.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileListTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testEntriesKeepInsertionOrder() throws IOException {
+        final File root = tempDir.newFolder("root");
+        final File dir = new File(root, "b");
+        assertTrue(dir.mkdirs());
+        final File a = new File(root, "a");
+        final File c = new File(dir, "c");
+        final File d = new File(dir, "d");
+        for (File file : Arrays.asList(a, c, d)) {
+            assertTrue(file.createNewFile());
+        }
+
+        final FileList list = new FileList(root.getParentFile(), URI.create("file:///remote"));
+        assertEquals("/remote/root/b/d", list.add(d));
+        assertEquals("/remote/root/b/c", list.add(c));
+        assertEquals("/remote/root/a", list.add(a));
+        // Existing entries are looked up by name instead of being added again
+        assertEquals("/remote/root", list.add(root));
+        assertEquals("/remote/root/b/d", list.add(d));
+
+        final List<String> visits = new ArrayList<>();
+        list.walk(new Walker() {
+            @Override
+            public void visitFile(FileEntry entry, boolean isLast) {
+                visits.add(entry.getName() + (isLast ? " (last)" : ""));
+            }
+
+            @Override
+            public void preVisitDirectory(DirectoryEntry entry, boolean isLast) {
+                visits.add(entry.getName() + "/" + (isLast ? " (last)" : ""));
+            }
+
+            @Override
+            public void postVisitDirectory(DirectoryEntry entry, boolean isLast) {
+            }
+        });
+
+        assertEquals(Arrays.asList("root/ (last)", "b/", "d", "c (last)", "a (last)"), visits);
+    }
+}
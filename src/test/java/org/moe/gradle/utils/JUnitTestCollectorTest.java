@@ -0,0 +1,154 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JUnitTestCollectorTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testTimings() throws IOException {
+        final File root = tempDir.getRoot();
+        final File timings = new File(root, "device.tsv");
+        final JUnitTestCollector collector = new JUnitTestCollector("device", new File(root, "device.txt"),
+                new File(root, "device.xml"), new File(root, "device.html"), timings);
+        collector.appendLine("%TESTS  :com.example.A-a");
+        collector.appendLine("%TESTE  :com.example.A-a#1234");
+        collector.appendLine("%TESTS  :com.example.A-b");
+        collector.appendLine("%FAILED :com.example.A-b");
+        collector.appendLine("%TESTE  :com.example.A-b");
+        collector.appendLine("%IGNORED:com.example.B-c");
+        collector.appendLine("%RUNTIME:42");
+        collector.close();
+
+        final List<String> lines = Files.readAllLines(timings.toPath());
+        assertEquals(JUnitTestCollector.TIMINGS_HEADER, lines.get(0));
+        assertEquals("com.example.A\ta\t1234\ttarget\tok", lines.get(1));
+        assertTrue(lines.get(2).matches("com\\.example\\.A\tb\t\\d+\thost\tfailed"));
+        assertEquals("com.example.B\tc\t0\thost\tignored", lines.get(3));
+        assertEquals(4, lines.size());
+
+        assertTrue(FileUtils.read(new File(root, "device.xml")).contains("time=\"1.234\""));
+    }
+
+    @Test
+    public void testReportsAreStreamed() {
+        final File txt = new File(tempDir.getRoot(), "device.txt");
+        final File xml = new File(tempDir.getRoot(), "device.xml");
+        final File html = new File(tempDir.getRoot(), "device.html");
+
+        final JUnitTestCollector collector = new JUnitTestCollector("device", txt, xml, html);
+        collector.appendLine("%TESTC  : 3 v2");
+        collector.appendLine("%TESTD  :com.example.A-a");
+        collector.appendLine("%TESTD  :com.example.A-b");
+        collector.appendLine("%TESTD  :com.example.B-c");
+        collector.appendLine("%TESTS  :com.example.A-a");
+        collector.appendLine("%TESTE  :com.example.A-a");
+        collector.appendLine("%TESTS  :com.example.A-b");
+        collector.appendLine("%FAILED :com.example.A-b");
+        collector.appendLine("expected <1> but was <2>");
+        collector.appendLine("%TESTE  :com.example.A-b");
+        collector.appendLine("%TESTS  :com.example.B-c");
+        collector.appendLine("%TESTE  :com.example.B-c");
+        collector.appendLine("%RUNTIME:42");
+        collector.close();
+
+        assertTrue(collector.getHasEnded());
+        assertEquals(3, collector.getNumTests());
+        assertEquals(3, collector.getNumStarted());
+        assertEquals(1, collector.getNumFailures());
+        assertFalse(new File(tempDir.getRoot(), "device.xml.part").exists());
+        assertFalse(new File(tempDir.getRoot(), "device.html.part").exists());
+
+        final String xmlContent = FileUtils.read(xml);
+        assertTrue(xmlContent.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testrun tests=\"3\" started=\"3\" failures=\"1\""));
+        assertTrue(xmlContent.contains("<testsuite name=\"com.example.A\""));
+        assertTrue(xmlContent.contains("<testsuite name=\"com.example.B\""));
+        assertTrue(xmlContent.contains("expected &lt;1&gt; but was &lt;2&gt;"));
+        assertTrue(xmlContent.endsWith("</testrun>\n"));
+
+        assertTrue(FileUtils.read(html).contains("Test report for &lt;device&gt;"));
+        assertTrue(FileUtils.read(txt).contains("expected <1> but was <2>\n%TESTE  :com.example.A-b\n"));
+    }
+
+    @Test
+    public void testDefinedTestsWhichDidNotStart() throws IOException {
+        final File root = tempDir.getRoot();
+        final File xml = new File(root, "device.xml");
+        final File html = new File(root, "device.html");
+        final File timings = new File(root, "device.tsv");
+        final JUnitTestCollector collector = new JUnitTestCollector("device", new File(root, "device.txt"), xml,
+                html, timings);
+        collector.appendLine("%TESTD  :com.example.A-a");
+        collector.appendLine("%TESTD  :com.example.A-b");
+        collector.appendLine("%TESTD  :com.example.B-c");
+        collector.appendLine("%TESTS  :com.example.A-a");
+        collector.appendLine("%TESTE  :com.example.A-a");
+        // The app crashed
+        collector.close();
+
+        assertEquals(3, collector.getNumTests());
+        assertEquals(1, collector.getNumStarted());
+
+        final String xmlContent = FileUtils.read(xml);
+        assertTrue(xmlContent.contains("<testcase name=\"a\" classname=\"com.example.A\""));
+        assertTrue(xmlContent.contains("<testcase name=\"b\" classname=\"com.example.A\" time=\"0.0\" >\n" +
+                "            <skipped message=\"Test was not started\" />"));
+        assertTrue(xmlContent.contains("<testsuite name=\"com.example.B\""));
+        assertTrue(xmlContent.contains("<testcase name=\"c\" classname=\"com.example.B\""));
+        assertEquals(2, xmlContent.split("Test was not started", -1).length - 1);
+
+        assertEquals(2, FileUtils.read(html).split("Not started", -1).length - 1);
+
+        final List<String> lines = Files.readAllLines(timings.toPath());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1).startsWith("com.example.A\ta\t"));
+    }
+
+    @Test
+    public void testDefinedTestOutsideOfShard() {
+        final File root = tempDir.getRoot();
+        final JUnitTestCollector collector = new JUnitTestCollector("device", new File(root, "device.txt"),
+                new File(root, "device.xml"), new File(root, "device.html"));
+        final List<String> reported = new ArrayList<>();
+        collector.setShard(Collections.singletonList("com.example.A"), reported::add);
+        collector.appendLine("%TESTD  :com.example.A-a");
+        assertNull(collector.getUnexpectedSuite());
+        collector.appendLine("%TESTD  :com.example.B-b");
+        collector.appendLine("%TESTD  :com.example.C-c");
+        collector.close();
+
+        // Only the first suite outside of the shard is reported, before any test starts
+        assertEquals(Collections.singletonList("com.example.B"), reported);
+        assertEquals("com.example.B", collector.getUnexpectedSuite());
+        assertEquals(0, collector.getNumStarted());
+    }
+}
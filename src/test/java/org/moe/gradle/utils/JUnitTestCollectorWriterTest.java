@@ -0,0 +1,102 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class JUnitTestCollectorWriterTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private JUnitTestCollector newCollector(String name) {
+        final File root = tempDir.getRoot();
+        return new JUnitTestCollector(name, new File(root, name + ".txt"), new File(root, name + ".xml"),
+                new File(root, name + ".html"));
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(new File(tempDir.getRoot(), name).toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLinesSpanningWrites() throws IOException {
+        final JUnitTestCollector collector = newCollector("split");
+        final byte[] log = ("%TESTC  : 1 v2\n" +
+                "%TESTD  :com.example.\u00dcn\u00efcode-test\n" +
+                "%TESTS  :com.example.\u00dcn\u00efcode-test\n" +
+                "%FAILED :com.example.\u00dcn\u00efcode-test\n" +
+                "expected: <\u00e4> but was: <\u00f6>\n" +
+                "%TESTE  :com.example.\u00dcn\u00efcode-test\n" +
+                "%RUNTIME:1").getBytes(StandardCharsets.UTF_8);
+
+        final JUnitTestCollectorWriter writer = new JUnitTestCollectorWriter(collector);
+        // Write in odd chunks to split lines and multi-byte characters
+        for (int off = 0; off < log.length; off += 3) {
+            writer.write(log, off, Math.min(3, log.length - off));
+        }
+        writer.close();
+        collector.close();
+
+        assertTrue(collector.getHasEnded());
+        assertEquals(1, collector.getNumTests());
+        assertEquals(1, collector.getNumFailures());
+        final String xml = read("split.xml");
+        assertTrue(xml.contains("<testsuite name=\"com.example.\u00dcn\u00efcode\""));
+        assertTrue(xml.contains("expected: &lt;\u00e4&gt; but was: &lt;\u00f6&gt;"));
+        assertEquals(new String(log, StandardCharsets.UTF_8) + "\n",
+                read("split.txt"));
+    }
+
+    @Test
+    public void testPipeSizedChunks() {
+        final int numClasses = 20;
+        final int numMethods = 10;
+        final StringBuilder log = new StringBuilder();
+        log.append("%TESTC  : ").append(numClasses * numMethods).append(" v2\n");
+        for (int c = 0; c < numClasses; ++c) {
+            for (int m = 0; m < numMethods; ++m) {
+                log.append("%TESTS  :com.example.Class").append(c).append("-method").append(m).append('\n');
+                log.append("2016-01-01 00:00:00.000 TestApp[123:4567] Some regular output of the test\n");
+                log.append("%TESTE  :com.example.Class").append(c).append("-method").append(m).append('\n');
+            }
+        }
+        log.append("%RUNTIME:1000\n");
+        final byte[] data = log.toString().getBytes(StandardCharsets.UTF_8);
+
+        final JUnitTestCollector collector = newCollector("chunks");
+        final JUnitTestCollectorWriter writer = new JUnitTestCollectorWriter(collector);
+        final int chunk = 4096;
+        for (int off = 0; off < data.length; off += chunk) {
+            writer.write(data, off, Math.min(chunk, data.length - off));
+        }
+        writer.close();
+        collector.close();
+
+        assertEquals(numClasses * numMethods, collector.getNumStarted());
+        assertTrue(collector.getHasEnded());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.gradle.api.GradleException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TestShardsTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testSplitBalancesDurations() {
+        final Map<String, Double> durations = new HashMap<>();
+        durations.put("A", 10.0);
+        durations.put("B", 6.0);
+        durations.put("C", 5.0);
+        durations.put("D", 4.0);
+        durations.put("E", 1.0);
+
+        final List<List<String>> shards = TestShards.split(Arrays.asList("E", "D", "C", "B", "A"), 2, durations);
+        assertEquals(2, shards.size());
+        assertEquals(Arrays.asList("A", "D"), shards.get(0));
+        assertEquals(Arrays.asList("B", "C", "E"), shards.get(1));
+    }
+
+    @Test
+    public void testSplitWithoutHistory() {
+        final List<String> classes = Arrays.asList("A", "B", "C", "D", "E", "F", "G");
+        final List<List<String>> shards = TestShards.split(classes, 3, Collections.emptyMap());
+
+        final Set<String> all = new HashSet<>();
+        for (List<String> shard : shards) {
+            assertTrue(shard.size() == 2 || shard.size() == 3);
+            all.addAll(shard);
+        }
+        assertEquals(new HashSet<>(classes), all);
+    }
+
+    @Test
+    public void testSplitMoreShardsThanClasses() {
+        final List<List<String>> shards = TestShards.split(Collections.singletonList("A"), 3, Collections.emptyMap());
+        assertEquals(Collections.singletonList("A"), shards.get(0));
+        assertTrue(shards.get(1).isEmpty());
+        assertTrue(shards.get(2).isEmpty());
+    }
+
+    @Test
+    public void testReadDurationsAndMerge() throws IOException {
+        final File xmlDir = tempDir.newFolder("xml");
+        final File first = new File(xmlDir, "first.xml");
+        FileUtils.write(first, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testrun tests=\"2\" started=\"2\" failures=\"1\" errors=\"0\" ignored=\"0\">\n" +
+                "    <testsuite name=\"com.example.A\" time=\"2.0\">\n" +
+                "        <testcase name=\"a\" classname=\"com.example.A\" time=\"1.0\" />\n" +
+                "        <testcase name=\"b\" classname=\"com.example.A\" time=\"1.0\" >\n" +
+                "            <failure>expected</failure>\n" +
+                "        </testcase>\n" +
+                "    </testsuite>\n" +
+                "</testrun>\n");
+        final File second = new File(xmlDir, "second.xml");
+        FileUtils.write(second, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testrun tests=\"1\" started=\"1\" failures=\"0\" errors=\"0\" ignored=\"1\">\n" +
+                "    <testsuite name=\"com.example.A\" time=\"4.0\" />\n" +
+                "    <testsuite name=\"com.example.B\" time=\"3.5\">\n" +
+                "        <testcase name=\"c\" classname=\"com.example.B\" time=\"3.5\" />\n" +
+                "    </testsuite>\n" +
+                "</testrun>\n");
+        FileUtils.write(new File(xmlDir, "broken.xml"), "<testrun");
+
+        final Map<String, Double> durations = TestShards.readDurations(xmlDir);
+        assertEquals(2, durations.size());
+        assertEquals(3.0, durations.get("com.example.A"), 0.0001);
+        assertEquals(3.5, durations.get("com.example.B"), 0.0001);
+
+        final File merged = new File(tempDir.getRoot(), "merged.xml");
+        TestShards.merge(Arrays.asList(first, second), merged);
+        final String content = FileUtils.read(merged);
+        assertTrue(content.contains("tests=\"3\""));
+        assertTrue(content.contains("failures=\"1\""));
+        assertTrue(content.contains("ignored=\"1\""));
+        assertTrue(content.contains("<failure>expected</failure>"));
+        assertTrue(content.contains("name=\"com.example.B\""));
+    }
+
+    @Test
+    public void testMergeRejectsOverlappingShards() throws IOException {
+        final String report = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testrun tests=\"1\" started=\"1\" failures=\"0\" errors=\"0\" ignored=\"0\">\n" +
+                "    <testsuite name=\"com.example.A\" time=\"1.0\">\n" +
+                "        <testcase name=\"a\" classname=\"com.example.A\" time=\"1.0\" />\n" +
+                "    </testsuite>\n" +
+                "</testrun>\n";
+        final File first = tempDir.newFile("first.xml");
+        FileUtils.write(first, report);
+        final File second = tempDir.newFile("second.xml");
+        FileUtils.write(second, report);
+
+        final File merged = new File(tempDir.getRoot(), "merged.xml");
+        try {
+            TestShards.merge(Arrays.asList(first, second), merged);
+            fail("overlapping shards should not be merged");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("com.example.A.a"));
+        }
+        assertFalse(merged.exists());
+    }
+}
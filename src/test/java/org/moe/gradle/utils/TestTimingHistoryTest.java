@@ -0,0 +1,99 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestTimingHistoryTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static List<TestTimingHistory.Timing> run(long a, long b) {
+        return Arrays.asList(
+                new TestTimingHistory.Timing("sim", "com.example.A", "a", a, "ok"),
+                new TestTimingHistory.Timing("sim", "com.example.A", "b", b, "ok"));
+    }
+
+    @Test
+    public void testRegressions() {
+        final File file = new File(tempDir.getRoot(), "history.tsv");
+        final TestTimingHistory history = new TestTimingHistory(file, 2);
+        history.add(1, run(100, 1000));
+        history.add(2, run(300, 1000));
+
+        // Averages are 200 and 1000 ms
+        final List<TestTimingHistory.Timing> current = run(400, 1100);
+        final Map<TestTimingHistory.Timing, Double> regressions = new TestTimingHistory(file, 2)
+                .getRegressions(current, 20);
+        assertEquals(1, regressions.size());
+        final TestTimingHistory.Timing regressed = regressions.keySet().iterator().next();
+        assertEquals("a", regressed.method);
+        assertEquals(200.0, regressions.get(regressed), 0.0001);
+
+        final String report = TestTimingHistory.createReport(current, regressions, 20);
+        assertTrue(report.contains("1500 ms  com.example.A [sim]"));
+        assertTrue(report.contains("(average 200 ms, +100%)  com.example.A-a [sim]"));
+    }
+
+    @Test
+    public void testOldRunsAreDropped() {
+        final File file = new File(tempDir.getRoot(), "history.tsv");
+        final TestTimingHistory history = new TestTimingHistory(file, 2);
+        history.add(1, run(10000, 10000));
+        history.add(2, run(100, 100));
+        history.add(3, run(100, 100));
+
+        assertEquals(3 * 2 - 2, FileUtils.read(file).split("\n").length);
+        assertEquals(1, new TestTimingHistory(file, 2).getRegressions(run(200, 100), 20).size());
+    }
+
+    @Test
+    public void testAveragesOfTarget() {
+        final TestTimingHistory history = new TestTimingHistory(new File(tempDir.getRoot(), "history.tsv"), 2);
+        history.add(1, run(100, 1000));
+        history.add(2, Arrays.asList(
+                new TestTimingHistory.Timing("sim", "com.example.A", "a", 300, "ok"),
+                new TestTimingHistory.Timing("device", "com.example.A", "a", 5000, "ok")));
+
+        final Map<String, Double> averages = history.getAverages("sim");
+        assertEquals(2, averages.size());
+        assertEquals(200.0, averages.get("com.example.A-a"), 0.0001);
+        assertEquals(1000.0, averages.get("com.example.A-b"), 0.0001);
+    }
+
+    @Test
+    public void testReadTimings() {
+        final File file = new File(tempDir.getRoot(), "sim.tsv");
+        FileUtils.write(file, JUnitTestCollector.TIMINGS_HEADER + "\n" +
+                "com.example.A\ta\t12\ttarget\tok\n" +
+                "com.example.A\tb\t3\thost\tfailed\n");
+        final List<TestTimingHistory.Timing> timings = TestTimingHistory.readTimings("sim", file);
+        assertEquals(2, timings.size());
+        assertEquals(12, timings.get(0).millis);
+        assertEquals("failed", timings.get(1).result);
+    }
+}
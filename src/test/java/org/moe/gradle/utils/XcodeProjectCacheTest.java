@@ -0,0 +1,104 @@
+/*
+Copyright (C) 2016 Migeran
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.gradle.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class XcodeProjectCacheTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private File xcodeproj;
+
+    private File pbxproj;
+
+    @Before
+    public void setUp() throws IOException {
+        xcodeproj = new File(tempDir.getRoot(), "App.xcodeproj");
+        pbxproj = new File(xcodeproj, "project.pbxproj");
+        assertTrue(xcodeproj.mkdirs());
+        try (InputStream stream = getClass().getClassLoader()
+                .getResourceAsStream("xcode-project-cache/App.xcodeproj/project.pbxproj")) {
+            Files.write(pbxproj.toPath(), IOUtils.toByteArray(stream));
+        }
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        final XcodeProjectCache cache = new XcodeProjectCache();
+        final XcodeProjectCache.ParsedProject project = cache.get(xcodeproj);
+
+        assertNotNull(project.getTargetRef("App"));
+        assertNull(project.getTargetRef("Missing"));
+        assertEquals("", project.getProjectDirPath());
+        assertTrue(project.getTargetConfigurations("App").containsKey("Release"));
+        assertTrue(project.getProjectConfigurations().containsKey("Debug"));
+
+        assertSame(project, cache.get(xcodeproj));
+    }
+
+    @Test
+    public void testChangedFileIsParsedAgain() throws Exception {
+        final XcodeProjectCache cache = new XcodeProjectCache();
+        final XcodeProjectCache.ParsedProject project = cache.get(xcodeproj);
+
+        renameTarget("App", "Application");
+        assertTrue(pbxproj.setLastModified(pbxproj.lastModified() + 2000));
+
+        final XcodeProjectCache.ParsedProject changed = cache.get(xcodeproj);
+        assertNotSame(project, changed);
+        assertNotNull(changed.getTargetRef("Application"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final XcodeProjectCache cache = new XcodeProjectCache();
+        final XcodeProjectCache.ParsedProject project = cache.get(xcodeproj);
+
+        // A save within the timestamp resolution keeps the size and modification time
+        final long lastModified = pbxproj.lastModified();
+        renameTarget("App", "Ppa");
+        assertTrue(pbxproj.setLastModified(lastModified));
+        assertSame(project, cache.get(xcodeproj));
+
+        // Tasks saving the project invalidate it, like UpdateXcodeSettings and GenerateUIObjCInterfaces do
+        cache.invalidate(xcodeproj);
+        final XcodeProjectCache.ParsedProject saved = cache.get(xcodeproj);
+        assertNotSame(project, saved);
+        assertNull(saved.getTargetRef("App"));
+        assertNotNull(saved.getTargetRef("Ppa"));
+    }
+
+    private void renameTarget(String from, String to) throws IOException {
+        final String content = new String(Files.readAllBytes(pbxproj.toPath()), StandardCharsets.UTF_8);
+        Files.write(pbxproj.toPath(), content.replace("name = " + from + ";", "name = " + to + ";")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+}